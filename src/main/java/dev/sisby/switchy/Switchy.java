@@ -1,13 +1,18 @@
 package dev.sisby.switchy;
 
 import dev.sisby.switchy.data.SwitchyComponentTypes;
+import dev.sisby.switchy.data.SwitchyJournal;
 import dev.sisby.switchy.data.SwitchyPlayerData;
+import dev.sisby.switchy.data.SwitchyProfileIndex;
+import dev.sisby.switchy.data.SwitchyProfileStore;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.management.PlayerList;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppedEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import org.apache.logging.log4j.LogManager;
@@ -25,19 +30,43 @@ public class Switchy {
     public static final String VERSION = "2.0.0";
     
     public static final Logger LOGGER = LogManager.getLogger(NAME);
+    public static final SwitchyScheduler SCHEDULER = new SwitchyScheduler();
+    public static final SwitchyJournal JOURNAL = new SwitchyJournal();
+    public static final SwitchyProfileIndex INDEX = new SwitchyProfileIndex();
     
     @Mod.EventHandler
     public void preInit(FMLPreInitializationEvent event) {
         LOGGER.info("Initializing Switchy...");
         SwitchyComponentTypes.init();
         MinecraftForge.EVENT_BUS.register(this);
+        MinecraftForge.EVENT_BUS.register(SCHEDULER);
+        MinecraftForge.EVENT_BUS.register(JOURNAL);
+        MinecraftForge.EVENT_BUS.register(INDEX);
+    }
+    
+    @Mod.EventHandler
+    public void postInit(FMLPostInitializationEvent event) {
+        // addons register their components during their own init, so this is the earliest the registry can be frozen
+        SwitchyComponentTypes.getStatic().freeze();
     }
     
     @Mod.EventHandler
     public void serverStarting(FMLServerStartingEvent event) {
+        JOURNAL.open(SwitchyProfileStore.directory(event.getServer()));
+        INDEX.open(event.getServer());
         event.registerServerCommand(new SwitchyCommands());
         LOGGER.info("Registered Switchy commands");
     }
+
+    @Mod.EventHandler
+    public void serverStopped(FMLServerStoppedEvent event) {
+        // players are saved during shutdown, so wait for their queued profile stores and the checkpoint behind them
+        SCHEDULER.shutdown();
+        INDEX.close();
+        JOURNAL.checkpoint();
+        SwitchyProfileStore.flush();
+        JOURNAL.close();
+    }
     
     @SubscribeEvent
     public void onPlayerLogin(PlayerEvent.PlayerLoggedInEvent event) {
@@ -49,4 +78,12 @@ public class Switchy {
             }
         }
     }
+
+    @SubscribeEvent
+    public void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event) {
+        if (event.player instanceof EntityPlayerMP) {
+            SwitchyPlayerData data = SwitchyPlayerData.ofEarly((EntityPlayerMP) event.player);
+            if (data != null) data.release();
+        }
+    }
 }
@@ -0,0 +1,364 @@
+package dev.sisby.switchy;
+
+import dev.sisby.switchy.data.SwitchyCompactCodec;
+import dev.sisby.switchy.data.SwitchyComponentType;
+import dev.sisby.switchy.data.SwitchyLegacyMigration;
+import dev.sisby.switchy.data.SwitchyPlayerData;
+import dev.sisby.switchy.data.SwitchyProfileCache;
+import dev.sisby.switchy.data.SwitchyProfileIndex;
+import dev.sisby.switchy.data.SwitchySnapshots;
+import dev.sisby.switchy.data.SwitchyStats;
+import dev.sisby.switchy.exception.NbtException;
+import dev.sisby.switchy.util.FormatUtils;
+import dev.sisby.switchy.util.LatencyHistogram;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextFormatting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+public class SwitchyAdminCommands {
+    public static final int PERMISSION_LEVEL = 2;
+
+    public static boolean canUse(ICommandSender sender) {
+        return sender.canUseCommand(PERMISSION_LEVEL, "switchy");
+    }
+
+    public static void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (!canUse(sender)) {
+            throw new CommandException("You don't have permission to use /switchy admin");
+        }
+        if (args.length < 2) {
+            throw new CommandException("Usage: /switchy admin <stats|codec|cache|index|migrate|snapshot|quotas>");
+        }
+
+        switch (args[1].toLowerCase()) {
+            case "stats":
+                if (args.length > 2 && args[2].equalsIgnoreCase("reset")) {
+                    SwitchyStats.reset();
+                    sender.sendMessage(info("Reset switch statistics"));
+                } else {
+                    printStats(sender);
+                }
+                break;
+            case "codec":
+                compareCodecs(server, sender);
+                break;
+            case "cache":
+                if (args.length > 2 && args[2].equalsIgnoreCase("reset")) {
+                    SwitchyProfileCache.resetCounters();
+                    sender.sendMessage(info("Reset profile cache counters"));
+                } else {
+                    printCache(sender);
+                }
+                break;
+            case "index":
+                index(server, sender, args);
+                break;
+            case "migrate":
+                migrate(server, sender);
+                break;
+            case "snapshot":
+                snapshot(server, sender, args);
+                break;
+            case "quotas":
+                quotas(server, sender, args.length > 2 ? CommandBase.parseInt(args[2], 1) : 10);
+                break;
+            default:
+                throw new CommandException("Usage: /switchy admin <stats|codec|cache|index|migrate|snapshot|quotas>");
+        }
+    }
+
+    public static List<String> getTabCompletions(ICommandSender sender, String[] args) {
+        if (!canUse(sender)) return Collections.emptyList();
+        if (args.length == 2) {
+            return CommandBase.getListOfStringsMatchingLastWord(args, "stats", "codec", "cache", "index", "migrate", "snapshot", "quotas");
+        }
+        if (args.length == 3 && args[1].equalsIgnoreCase("snapshot")) {
+            return CommandBase.getListOfStringsMatchingLastWord(args, "create", "list", "restore");
+        }
+        if (args.length == 3 && args[1].equalsIgnoreCase("index")) {
+            return CommandBase.getListOfStringsMatchingLastWord(args, "player", "find", "largest", "rebuild");
+        }
+        if (args.length == 3 && (args[1].equalsIgnoreCase("stats") || args[1].equalsIgnoreCase("cache"))) {
+            return CommandBase.getListOfStringsMatchingLastWord(args, "reset");
+        }
+        return Collections.emptyList();
+    }
+
+    private static void printStats(ICommandSender sender) {
+        TextComponentString header = new TextComponentString("=== Switchy Switch Timings ===");
+        header.getStyle().setColor(TextFormatting.BLUE).setBold(true);
+        sender.sendMessage(header);
+
+        for (SwitchyStats.Phase phase : SwitchyStats.Phase.values()) {
+            sender.sendMessage(histogramLine(phase.label(), SwitchyStats.phase(phase)));
+        }
+
+        List<Map.Entry<SwitchyComponentType<?>, LatencyHistogram>> slowest = SwitchyStats.slowestComponents(5);
+        if (!slowest.isEmpty()) {
+            TextComponentString componentHeader = new TextComponentString("Slowest components (by p95):");
+            componentHeader.getStyle().setColor(TextFormatting.BLUE);
+            sender.sendMessage(componentHeader);
+            for (Map.Entry<SwitchyComponentType<?>, LatencyHistogram> entry : slowest) {
+                sender.sendMessage(histogramLine(entry.getKey().id().toString(), entry.getValue()));
+            }
+        }
+    }
+
+    private static void printCache(ICommandSender sender) {
+        TextComponentString header = new TextComponentString("=== Switchy Profile Cache ===");
+        header.getStyle().setColor(TextFormatting.BLUE).setBold(true);
+        sender.sendMessage(header);
+        long budget = SwitchyConfig.decodedProfileBudgetKb * 1024L;
+        sender.sendMessage(info(String.format("%d decoded inactive profiles using %s of %s",
+            SwitchyProfileCache.size(), FormatUtils.bytes(SwitchyProfileCache.usage()), budget > 0 ? FormatUtils.bytes(budget) : "unlimited")));
+        long hits = SwitchyProfileCache.hits();
+        long misses = SwitchyProfileCache.misses();
+        sender.sendMessage(info(String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions",
+            hits, misses, hits + misses > 0 ? 100.0 * hits / (hits + misses) : 0.0, SwitchyProfileCache.evictions())));
+    }
+
+    private static void index(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        SwitchyProfileIndex index = Switchy.INDEX;
+        String action = args.length > 2 ? args[2].toLowerCase() : "";
+        switch (action) {
+            case "":
+                sender.sendMessage(info(String.format("%d players with profiles indexed%s", index.size(), index.isRebuilding() ? " (rebuilding)" : "")));
+                break;
+            case "rebuild":
+                if (index.rebuild(server, count -> sender.sendMessage(info(String.format("Rebuilt profile index with %d players", count))))) {
+                    sender.sendMessage(info("Rebuilding profile index from saved player data..."));
+                } else {
+                    throw new CommandException("The profile index is already being rebuilt");
+                }
+                break;
+            case "player": {
+                if (args.length < 4) throw new CommandException("Usage: /switchy admin index player <name|uuid>");
+                SwitchyProfileIndex.Entry entry = index.get(args[3]);
+                if (entry == null) {
+                    try {
+                        entry = index.get(UUID.fromString(args[3]));
+                    } catch (IllegalArgumentException ignored) {
+                    }
+                }
+                if (entry == null) throw new CommandException("No indexed profiles for " + args[3]);
+                sender.sendMessage(info(String.format("%s: %d profiles using %s, %d components, current %s",
+                    entry.name(), entry.profiles().size(), FormatUtils.bytes(entry.totalSize()), entry.components().size(), entry.current())));
+                for (Map.Entry<String, Long> profile : entry.profiles().entrySet()) {
+                    sender.sendMessage(info(String.format("  %s: %s", profile.getKey(), FormatUtils.bytes(profile.getValue()))));
+                }
+                break;
+            }
+            case "find": {
+                if (args.length < 4) throw new CommandException("Usage: /switchy admin index find <profile>");
+                List<SwitchyProfileIndex.Entry> entries = index.withProfile(args[3]);
+                sender.sendMessage(info(String.format("%d players have a profile named %s%s", entries.size(), args[3],
+                    entries.isEmpty() ? "" : ": " + entries.stream().map(SwitchyProfileIndex.Entry::name).collect(Collectors.joining(", ")))));
+                break;
+            }
+            case "largest": {
+                int limit = args.length > 3 ? CommandBase.parseInt(args[3], 1) : 5;
+                for (SwitchyProfileIndex.Entry entry : index.largest(limit)) {
+                    sender.sendMessage(info(String.format("%s: %s across %d profiles", entry.name(), FormatUtils.bytes(entry.totalSize()), entry.profiles().size())));
+                }
+                break;
+            }
+            default:
+                throw new CommandException("Usage: /switchy admin index [player|find|largest|rebuild]");
+        }
+    }
+
+    private static void migrate(MinecraftServer server, ICommandSender sender) throws CommandException {
+        boolean started = SwitchyLegacyMigration.start(server, progress -> sender.sendMessage(info(progress)), result -> {
+            sender.sendMessage(info(String.format("Migrated %d of %d player files in %s (%d had no legacy data, %d were online, %d failed)",
+                result.migrated(), result.total(), FormatUtils.duration(result.nanos()), result.unchanged(), result.online(), result.failed())));
+            Map<ResourceLocation, Integer> skipped = result.skippedComponents();
+            if (!skipped.isEmpty()) {
+                sender.sendMessage(info("Skipped components: " + skipped.entrySet().stream()
+                    .sorted(Map.Entry.<ResourceLocation, Integer>comparingByValue().reversed())
+                    .map(e -> String.format("%s (%d players)", e.getKey(), e.getValue()))
+                    .collect(Collectors.joining(", "))));
+            }
+        });
+        if (!started) throw new CommandException("A legacy migration is already running");
+        sender.sendMessage(info("Migrating legacy switchy data in every offline player file..."));
+    }
+
+    private static void quotas(MinecraftServer server, ICommandSender sender, int limit) {
+        // online players' entries are refreshed from memory; everyone else's are as of their last save
+        for (EntityPlayerMP player : server.getPlayerList().getPlayers()) {
+            SwitchyPlayerData data = SwitchyPlayerData.ofEarly(player);
+            if (data != null) Switchy.INDEX.update(player, data);
+        }
+        long maxBytes = SwitchyConfig.maxProfileKb * 1024L;
+        TextComponentString header = new TextComponentString(String.format("=== Switchy Profile Usage (limits: %s, %s) ===",
+            SwitchyConfig.maxProfiles > 0 ? SwitchyConfig.maxProfiles + " profiles" : "unlimited profiles", maxBytes > 0 ? FormatUtils.bytes(maxBytes) : "unlimited size"));
+        header.getStyle().setColor(TextFormatting.BLUE).setBold(true);
+        sender.sendMessage(header);
+        for (SwitchyProfileIndex.Entry entry : Switchy.INDEX.largest(limit)) {
+            boolean over = (maxBytes > 0 && entry.totalSize() > maxBytes) || (SwitchyConfig.maxProfiles > 0 && entry.profiles().size() > SwitchyConfig.maxProfiles);
+            TextComponentString line = new TextComponentString(entry.name() + ": ");
+            line.getStyle().setColor(over ? TextFormatting.RED : TextFormatting.YELLOW);
+            TextComponentString values = new TextComponentString(String.format("%s in %d profiles, largest %s",
+                FormatUtils.bytes(entry.totalSize()), entry.profiles().size(), FormatUtils.bytes(entry.profiles().values().stream().mapToLong(Long::longValue).max().orElse(0))));
+            values.getStyle().setColor(TextFormatting.GRAY);
+            line.appendSibling(values);
+            sender.sendMessage(line);
+        }
+    }
+
+    private static void snapshot(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        String action = args.length > 2 ? args[2].toLowerCase() : "create";
+        switch (action) {
+            case "create": {
+                String name = args.length > 3 ? args[3] : new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(new Date());
+                if (!SwitchySnapshots.isValidName(name)) throw new CommandException("Snapshot names can only use letters, numbers, '.', '_' and '-'");
+                if (SwitchySnapshots.exists(server, name)) throw new CommandException("A snapshot named " + name + " already exists");
+                boolean started = SwitchySnapshots.create(server, name, result -> {
+                    if (result.error() != null) {
+                        sender.sendMessage(info("Snapshot " + result.name() + " failed: " + result.error()));
+                        return;
+                    }
+                    sender.sendMessage(info(String.format("Snapshot %s: %d players, %d profiles, %d new chunks (%s) in %s, %d unchanged player files reused",
+                        result.name(), result.players(), result.profiles(), result.chunks(), FormatUtils.bytes(result.bytes()), FormatUtils.duration(result.nanos()), result.reused())));
+                });
+                if (!started) throw new CommandException("A snapshot is already being taken");
+                sender.sendMessage(info("Taking snapshot " + name + "..."));
+                break;
+            }
+            case "list": {
+                List<String> snapshots = SwitchySnapshots.list(server);
+                sender.sendMessage(info(snapshots.isEmpty() ? "No snapshots yet" : snapshots.size() + " snapshots: " + String.join(", ", snapshots)));
+                break;
+            }
+            case "restore": {
+                if (args.length < 5) throw new CommandException("Usage: /switchy admin snapshot restore <snapshot> <player>");
+                SwitchySnapshots.Restored restored;
+                try {
+                    restored = SwitchySnapshots.restore(server, args[3], args[4]);
+                } catch (IOException | NbtException e) {
+                    throw new CommandException("Restore failed: " + e.getMessage());
+                }
+                if (restored == null) throw new CommandException("Snapshot " + args[3] + " doesn't exist or has no profiles for " + args[4]);
+                sender.sendMessage(info(String.format("Restored %d profiles of %s from snapshot %s%s",
+                    restored.profiles(), restored.player(), args[3], restored.online() ? "" : " (offline)")));
+                break;
+            }
+            default:
+                throw new CommandException("Usage: /switchy admin snapshot [create [name]|list|restore <snapshot> <player>]");
+        }
+    }
+
+    private static void compareCodecs(MinecraftServer server, ICommandSender sender) throws CommandException {
+        int players = 0;
+        int mismatches = 0;
+        long nbtSize = 0, nbtGzip = 0, nbtEncode = 0, nbtDecode = 0;
+        long compactSize = 0, compactGzip = 0, compactEncode = 0, compactDecode = 0;
+
+        try {
+            for (EntityPlayerMP player : server.getPlayerList().getPlayers()) {
+                SwitchyPlayerData data = SwitchyPlayerData.ofEarly(player);
+                if (data == null) continue;
+                NBTTagCompound root = new NBTTagCompound();
+                data.writeFullNbt(root);
+                if (!root.hasKey(Switchy.ID, 10)) continue;
+                NBTTagCompound switchyNbt = root.getCompoundTag(Switchy.ID);
+                players++;
+
+                long start = System.nanoTime();
+                ByteArrayOutputStream nbtBytes = new ByteArrayOutputStream();
+                CompressedStreamTools.write(switchyNbt, new DataOutputStream(nbtBytes));
+                nbtEncode += System.nanoTime() - start;
+                start = System.nanoTime();
+                CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(nbtBytes.toByteArray())));
+                nbtDecode += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                byte[] compact = SwitchyCompactCodec.encode(switchyNbt);
+                compactEncode += System.nanoTime() - start;
+                start = System.nanoTime();
+                NBTTagCompound decoded = SwitchyCompactCodec.decode(compact);
+                compactDecode += System.nanoTime() - start;
+                if (!decoded.equals(switchyNbt)) mismatches++;
+
+                nbtSize += nbtBytes.size();
+                nbtGzip += gzipSize(nbtBytes.toByteArray());
+                compactSize += compact.length;
+                compactGzip += gzipSize(compact);
+            }
+        } catch (IOException e) {
+            throw new CommandException("Codec comparison failed: " + e.getMessage());
+        }
+
+        TextComponentString header = new TextComponentString("=== Switchy Codec Comparison ===");
+        header.getStyle().setColor(TextFormatting.BLUE).setBold(true);
+        sender.sendMessage(header);
+        sender.sendMessage(info(String.format("%d online players with profiles, %d round-trip mismatches", players, mismatches)));
+        sender.sendMessage(codecLine("nbt", nbtSize, nbtGzip, nbtEncode, nbtDecode));
+        sender.sendMessage(codecLine("compact", compactSize, compactGzip, compactEncode, compactDecode));
+        if (nbtSize > 0) {
+            sender.sendMessage(info(String.format("compact is %.1f%% of nbt raw, %.1f%% gzipped", 100.0 * compactSize / nbtSize, 100.0 * compactGzip / Math.max(1, nbtGzip))));
+        }
+    }
+
+    private static TextComponentString codecLine(String label, long size, long gzip, long encode, long decode) {
+        TextComponentString line = new TextComponentString(label + ": ");
+        line.getStyle().setColor(TextFormatting.YELLOW);
+        TextComponentString values = new TextComponentString(String.format("%s raw, %s gzipped, encode %s, decode %s",
+            FormatUtils.bytes(size), FormatUtils.bytes(gzip), FormatUtils.duration(encode), FormatUtils.duration(decode)));
+        values.getStyle().setColor(TextFormatting.GRAY);
+        line.appendSibling(values);
+        return line;
+    }
+
+    private static int gzipSize(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.size();
+    }
+
+    private static TextComponentString histogramLine(String label, LatencyHistogram histogram) {
+        TextComponentString line = new TextComponentString(label + ": ");
+        line.getStyle().setColor(TextFormatting.YELLOW);
+        TextComponentString values = new TextComponentString(String.format("n=%d p50=%s p95=%s p99=%s max=%s",
+            histogram.count(),
+            FormatUtils.duration(histogram.percentile(50)),
+            FormatUtils.duration(histogram.percentile(95)),
+            FormatUtils.duration(histogram.percentile(99)),
+            FormatUtils.duration(histogram.max())
+        ));
+        values.getStyle().setColor(TextFormatting.GRAY);
+        line.appendSibling(values);
+        return line;
+    }
+
+    static TextComponentString info(String text) {
+        TextComponentString message = SwitchyCommands.prefix();
+        TextComponentString body = new TextComponentString(text);
+        body.getStyle().setColor(TextFormatting.GRAY);
+        message.appendSibling(body);
+        return message;
+    }
+}
@@ -18,6 +18,7 @@ import net.minecraft.util.text.TextFormatting;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -32,7 +33,7 @@ public class SwitchyCommands extends CommandBase {
 
     @Override
     public String getUsage(ICommandSender sender) {
-        return "/switchy [list|switch <profile>|view <profile>|delete <profile>|rename <profile> <new_id>|components [enable|disable] <id>]";
+        return "/switchy [list|switch <profile>|view <profile>|delete <profile>|rename <profile> <new_id>|components [enable|disable] <id>|admin]";
     }
 
     @Override
@@ -42,6 +43,11 @@ public class SwitchyCommands extends CommandBase {
 
     @Override
     public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length > 0 && args[0].equalsIgnoreCase("admin")) {
+            SwitchyAdminCommands.execute(server, sender, args);
+            return;
+        }
+
         if (!(sender instanceof EntityPlayerMP)) {
             throw new CommandException("This command can only be used by players");
         }
@@ -95,7 +101,14 @@ public class SwitchyCommands extends CommandBase {
 
     @Override
     public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+        if (args.length > 1 && args[0].equalsIgnoreCase("admin")) {
+            return SwitchyAdminCommands.getTabCompletions(sender, args);
+        }
+
         if (!(sender instanceof EntityPlayerMP)) {
+            if (args.length == 1 && SwitchyAdminCommands.canUse(sender)) {
+                return getListOfStringsMatchingLastWord(args, "admin");
+            }
             return Collections.emptyList();
         }
 
@@ -107,6 +120,9 @@ public class SwitchyCommands extends CommandBase {
         }
 
         if (args.length == 1) {
+            if (SwitchyAdminCommands.canUse(sender)) {
+                return getListOfStringsMatchingLastWord(args, "list", "switch", "view", "delete", "rename", "components", "admin");
+            }
             return getListOfStringsMatchingLastWord(args, "list", "switch", "view", "delete", "rename", "components");
         }
 
@@ -167,18 +183,9 @@ public class SwitchyCommands extends CommandBase {
 
     private void switchProfile(EntityPlayerMP player, SwitchyPlayerData data, String profileId) throws CommandException {
         try {
-            TextComponentString prefix = new TextComponentString("[Switchy] ");
-            prefix.getStyle().setColor(TextFormatting.BLUE);
-            
-            TextComponentString message = new TextComponentString("Switched to profile ");
-            message.getStyle().setColor(TextFormatting.GRAY);
-            prefix.appendSibling(message);
-            
-            TextComponentString profileName = new TextComponentString(profileId);
-            profileName.getStyle().setColor(TextFormatting.YELLOW);
-            prefix.appendSibling(profileName);
-
-            data.switchOrCreateProfile(profileId, player, prefix);
+            // refused up front rather than after waiting in the queue
+            data.checkQuota(profileId.toLowerCase());
+            Switchy.SCHEDULER.submit(player, profileId, () -> switchGreeting(profileId));
         } catch (NbtException e) {
             throw new CommandException("Failed to switch profile: " + e.getMessage());
         } catch (Exception e) {
@@ -186,6 +193,20 @@ public class SwitchyCommands extends CommandBase {
         }
     }
 
+    private static ITextComponent switchGreeting(String profileId) {
+        TextComponentString prefix = new TextComponentString("[Switchy] ");
+        prefix.getStyle().setColor(TextFormatting.BLUE);
+        
+        TextComponentString message = new TextComponentString("Switched to profile ");
+        message.getStyle().setColor(TextFormatting.GRAY);
+        prefix.appendSibling(message);
+        
+        TextComponentString profileName = new TextComponentString(profileId);
+        profileName.getStyle().setColor(TextFormatting.YELLOW);
+        prefix.appendSibling(profileName);
+        return prefix;
+    }
+
     private void viewProfile(EntityPlayerMP player, SwitchyPlayerData data, String profileId) throws CommandException {
         if (!data.profileExists(profileId)) {
             throw new CommandException("Profile '" + profileId + "' doesn't exist!");
@@ -209,6 +230,7 @@ public class SwitchyCommands extends CommandBase {
     private void deleteProfile(EntityPlayerMP player, SwitchyPlayerData data, String profileId) throws CommandException {
         try {
             data.deleteProfile(profileId);
+            Switchy.JOURNAL.recordDelete(player, profileId);
             
             TextComponentString message = new TextComponentString("Deleted profile: ");
             message.getStyle().setColor(TextFormatting.GRAY);
@@ -226,6 +248,7 @@ public class SwitchyCommands extends CommandBase {
     private void renameProfile(EntityPlayerMP player, SwitchyPlayerData data, String oldId, String newId) throws CommandException {
         try {
             data.renameProfile(oldId, newId);
+            Switchy.JOURNAL.recordRename(player, oldId, newId);
 
             TextComponentString message = prefix();
             TextComponentString body = new TextComponentString("Renamed profile ");
@@ -306,7 +329,7 @@ public class SwitchyCommands extends CommandBase {
         }
 
         Set<SwitchyComponentType<?>> pending = targets.stream()
-            .filter(t -> !data.componentSet().contains(t))
+            .filter(t -> !data.isEnabled(t))
             .collect(Collectors.toCollection(LinkedHashSet::new));
 
         if (pending.isEmpty()) {
@@ -317,6 +340,7 @@ public class SwitchyCommands extends CommandBase {
         if (added <= 0) {
             throw new CommandException("Failed to enable component(s). Check logs for details.");
         }
+        Switchy.JOURNAL.recordComponents(player, true, pending);
 
         TextComponentString message = prefix();
         TextComponentString enabledText = new TextComponentString("Enabled ");
@@ -344,7 +368,7 @@ public class SwitchyCommands extends CommandBase {
         }
 
         Set<SwitchyComponentType<?>> enabled = targets.stream()
-            .filter(t -> data.componentSet().contains(t))
+            .filter(t -> data.isEnabled(t))
             .collect(Collectors.toCollection(LinkedHashSet::new));
 
         if (enabled.isEmpty()) {
@@ -355,6 +379,7 @@ public class SwitchyCommands extends CommandBase {
         if (removed <= 0) {
             throw new CommandException("Unable to disable component(s). One or more profiles may still contain precious data.");
         }
+        Switchy.JOURNAL.recordComponents(player, false, enabled);
 
         TextComponentString message = prefix();
         TextComponentString disabledText = new TextComponentString("Disabled ");
@@ -381,12 +406,9 @@ public class SwitchyCommands extends CommandBase {
             return Collections.emptySet();
         }
 
-        Set<SwitchyComponentType<?>> groupMatches = types.values().stream()
-            .filter(t -> id.equals(t.group()))
-            .collect(Collectors.toCollection(LinkedHashSet::new));
-
+        List<SwitchyComponentType<?>> groupMatches = types.members(id);
         if (!groupMatches.isEmpty()) {
-            return groupMatches;
+            return new LinkedHashSet<>(groupMatches);
         }
 
         SwitchyComponentType<?> direct = types.get(id);
@@ -414,15 +436,16 @@ public class SwitchyCommands extends CommandBase {
         }
 
         Set<String> suggestions = new LinkedHashSet<>();
-        for (SwitchyComponentType<?> type : types.values()) {
-            boolean enabled = data.componentSet().contains(type);
-            if (enabled == onlyEnabled) {
-                if (type.group() != null) {
-                    suggestions.add(type.group().toString());
-                }
-                suggestions.add(types.id(type).toString());
+        // a group is offered while any of its members can still be toggled that way
+        for (ResourceLocation group : types.groups()) {
+            if (onlyEnabled ? data.isGroupPartlyEnabled(group) : !data.isGroupEnabled(group)) {
+                suggestions.add(group.toString());
             }
         }
+        BitSet components = data.componentBits(onlyEnabled);
+        for (int i = components.nextSetBit(0); i >= 0; i = components.nextSetBit(i + 1)) {
+            suggestions.add(types.key(i));
+        }
 
         return new ArrayList<>(suggestions);
     }
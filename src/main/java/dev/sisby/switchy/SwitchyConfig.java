@@ -0,0 +1,91 @@
+package dev.sisby.switchy;
+
+import net.minecraftforge.common.config.Config;
+import net.minecraftforge.common.config.ConfigManager;
+import net.minecraftforge.fml.client.event.ConfigChangedEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+@Config(modid = Switchy.ID)
+public class SwitchyConfig {
+    @Config.Comment({
+        "Apply only the components that differ between the outgoing and incoming profile directly to the player.",
+        "Falls back to the full NBT round trip when a changed component can't be applied directly."
+    })
+    public static boolean deltaSwitching = true;
+
+    @Config.Comment({
+        "Time budget in microseconds per server tick for applying queued /switchy switch requests.",
+        "Set to 0 to apply switches immediately inside the command."
+    })
+    @Config.RangeInt(min = 0)
+    public static int switchTickBudgetMicros = 2000;
+
+    @Config.Comment({
+        "Worker threads used to prepare a queued switch's target profile off the main thread.",
+        "Set to 0 to disable staging. Takes effect after a restart."
+    })
+    @Config.RangeInt(min = 0, max = 16)
+    public static int stagingThreads = 2;
+
+    @Config.Comment({
+        "Where profiles are saved.",
+        "PLAYERDATA keeps every profile inside the vanilla player file.",
+        "SEPARATE keeps them in <world>/switchy/<uuid>.dat, rewritten only when they change, and leaves a pointer in the player file."
+    })
+    public static Storage storage = Storage.PLAYERDATA;
+
+    @Config.Comment({
+        "Save profiles with the compact binary codec instead of plain NBT.",
+        "Either format is read regardless of this setting."
+    })
+    public static boolean compactCodec = false;
+
+    @Config.Comment({
+        "Store each distinct item stack with NBT once per player and have profiles reference it by content hash.",
+        "Saved data using references is read regardless of this setting."
+    })
+    public static boolean itemDedup = false;
+
+    @Config.Comment({
+        "Journal profile switches, renames, deletes and component changes to <world>/switchy/journal.bin so a crash",
+        "before the next save doesn't lose them. The journal is truncated each time the overworld saves."
+    })
+    public static boolean journal = true;
+
+    @Config.Comment({
+        "Memory budget in KB for decoded inactive profiles across all online players, measured by their serialized size.",
+        "The least recently used profiles past this budget are packed back to compact bytes. Set to 0 for no limit."
+    })
+    @Config.RangeInt(min = 0)
+    public static int decodedProfileBudgetKb = 32768;
+
+    @Config.Comment({
+        "Most profiles each player can have. Set to 0 for no limit."
+    })
+    @Config.RangeInt(min = 0)
+    public static int maxProfiles = 0;
+
+    @Config.Comment({
+        "Most KB each player's profiles can use together, measured by their serialized size as of their last save.",
+        "Creating a new profile is refused while a player is over it; switching between existing ones never is.",
+        "Set to 0 for no limit."
+    })
+    @Config.RangeInt(min = 0)
+    public static int maxProfileKb = 0;
+
+    public enum Storage {
+        PLAYERDATA,
+        SEPARATE
+    }
+
+    @Mod.EventBusSubscriber(modid = Switchy.ID)
+    public static class EventHandler {
+        @SubscribeEvent
+        public static void onConfigChanged(ConfigChangedEvent.OnConfigChangedEvent event) {
+            if (event.getModID().equals(Switchy.ID)) {
+                ConfigManager.sync(Switchy.ID, Config.Type.INSTANCE);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package dev.sisby.switchy;
+
+import dev.sisby.switchy.data.SwitchyPlayerData;
+import dev.sisby.switchy.data.SwitchyStagedProfile;
+import dev.sisby.switchy.exception.NbtException;
+import dev.sisby.switchy.exception.ProfileCurrentException;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextFormatting;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class SwitchyScheduler {
+    // insertion-ordered, so re-queueing keeps a player's original place while replacing the target
+    private final Map<UUID, PendingSwitch> queue = new LinkedHashMap<>();
+    // tickets of queued switches stay contiguous, so a position is one subtraction; only removals from the middle renumber
+    private long nextTicket;
+    private ExecutorService stagingPool = null;
+
+    // the greeting is only built once the switch actually happens
+    public void submit(EntityPlayerMP player, String profileId, Supplier<ITextComponent> greeting) throws NbtException {
+        SwitchyPlayerData data = SwitchyPlayerData.of(player);
+        if (SwitchyConfig.switchTickBudgetMicros <= 0) {
+            data.switchOrCreateProfile(profileId, player, greeting.get());
+            return;
+        }
+
+        UUID uuid = player.getUniqueID();
+        if (profileId.equals(data.current())) {
+            if (remove(uuid) != null) {
+                player.sendMessage(message("Cancelled your queued switch, staying on ", profileId));
+                return;
+            }
+            throw new ProfileCurrentException(profileId);
+        }
+
+        CompletableFuture<SwitchyStagedProfile> staged = null;
+        if (SwitchyConfig.stagingThreads > 0 && data.profileExists(profileId)) {
+            staged = SwitchyStagedProfile.stage(data.getProfile(profileId, player), stagingPool());
+        }
+        PendingSwitch previous = queue.get(uuid);
+        boolean replaced = previous != null;
+        PendingSwitch pending = new PendingSwitch(profileId, greeting, staged, replaced ? previous.ticket : nextTicket++);
+        queue.put(uuid, pending);
+        long position = pending.ticket - queue.values().iterator().next().ticket + 1;
+        ITextComponent feedback = message(replaced ? "Replaced your queued switch with " : "Queued switch to ", profileId);
+        TextComponentString suffix = new TextComponentString(" (position " + position + ")");
+        suffix.getStyle().setColor(TextFormatting.GRAY);
+        feedback.appendSibling(suffix);
+        player.sendMessage(feedback);
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || queue.isEmpty()) return;
+        MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+        if (server == null) return;
+
+        long deadline = System.nanoTime() + SwitchyConfig.switchTickBudgetMicros * 1000L;
+        // always make progress, even if a single switch blows the whole budget
+        do {
+            UUID uuid = queue.keySet().iterator().next();
+            PendingSwitch pending = queue.remove(uuid);
+            EntityPlayerMP player = server.getPlayerList().getPlayerByUUID(uuid);
+            if (player != null) {
+                apply(player, pending);
+            }
+        } while (!queue.isEmpty() && System.nanoTime() < deadline);
+    }
+
+    @SubscribeEvent
+    public void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event) {
+        remove(event.player.getUniqueID());
+    }
+
+    private PendingSwitch remove(UUID uuid) {
+        PendingSwitch removed = queue.remove(uuid);
+        if (removed != null) {
+            nextTicket = 0;
+            for (PendingSwitch pending : queue.values()) {
+                pending.ticket = nextTicket++;
+            }
+        }
+        return removed;
+    }
+
+    private void apply(EntityPlayerMP player, PendingSwitch pending) {
+        try {
+            SwitchyPlayerData.of(player).switchOrCreateProfile(pending.profileId, player, pending.greeting.get(), pending.stagedIfReady());
+        } catch (Exception e) {
+            TextComponentString error = new TextComponentString("Failed to switch to " + pending.profileId + ": " + e.getMessage());
+            error.getStyle().setColor(TextFormatting.RED);
+            player.sendMessage(error);
+        }
+    }
+
+    // queued switches don't outlive the server, and neither do the staging threads
+    public void shutdown() {
+        queue.clear();
+        nextTicket = 0;
+        if (stagingPool != null) {
+            stagingPool.shutdownNow();
+            stagingPool = null;
+        }
+    }
+
+    private ExecutorService stagingPool() {
+        if (stagingPool == null) {
+            AtomicInteger count = new AtomicInteger();
+            stagingPool = Executors.newFixedThreadPool(SwitchyConfig.stagingThreads, r -> {
+                Thread thread = new Thread(r, "Switchy Staging #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return stagingPool;
+    }
+
+    private static ITextComponent message(String text, String profileId) {
+        TextComponentString prefix = SwitchyCommands.prefix();
+        TextComponentString body = new TextComponentString(text);
+        body.getStyle().setColor(TextFormatting.GRAY);
+        prefix.appendSibling(body);
+        TextComponentString profileName = new TextComponentString(profileId);
+        profileName.getStyle().setColor(TextFormatting.YELLOW);
+        prefix.appendSibling(profileName);
+        return prefix;
+    }
+
+    private static class PendingSwitch {
+        private final String profileId;
+        private final Supplier<ITextComponent> greeting;
+        private final CompletableFuture<SwitchyStagedProfile> staged;
+        private long ticket;
+
+        private PendingSwitch(String profileId, Supplier<ITextComponent> greeting, CompletableFuture<SwitchyStagedProfile> staged, long ticket) {
+            this.profileId = profileId;
+            this.greeting = greeting;
+            this.staged = staged;
+            this.ticket = ticket;
+        }
+
+        private SwitchyStagedProfile stagedIfReady() {
+            // never wait on the main thread, an unfinished stage just means a normal switch
+            if (staged == null || !staged.isDone() || staged.isCompletedExceptionally()) return null;
+            return staged.join();
+        }
+    }
+}
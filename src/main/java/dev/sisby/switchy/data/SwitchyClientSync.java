@@ -0,0 +1,115 @@
+package dev.sisby.switchy.data;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.entity.player.PlayerCapabilities;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.InventoryEnderChest;
+import net.minecraft.item.ItemStack;
+import net.minecraft.network.play.server.SPacketHeldItemChange;
+import net.minecraft.network.play.server.SPacketPlayerAbilities;
+import net.minecraft.network.play.server.SPacketSetExperience;
+import net.minecraft.network.play.server.SPacketSetSlot;
+import net.minecraft.network.play.server.SPacketUpdateHealth;
+import net.minecraft.util.NonNullList;
+
+public class SwitchyClientSync {
+    private final NonNullList<ItemStack> container;
+    private final NonNullList<ItemStack> enderChest;
+    private final float health;
+    private final int food;
+    private final float saturation;
+    private final float experience;
+    private final int experienceTotal;
+    private final int experienceLevel;
+    private final int currentItem;
+    private final boolean disableDamage;
+    private final boolean isFlying;
+    private final boolean allowFlying;
+    private final boolean isCreativeMode;
+    private final float flySpeed;
+    private final float walkSpeed;
+
+    private SwitchyClientSync(EntityPlayerMP player) {
+        Container inventoryContainer = player.inventoryContainer;
+        container = NonNullList.withSize(inventoryContainer.inventorySlots.size(), ItemStack.EMPTY);
+        for (int i = 0; i < container.size(); i++) {
+            container.set(i, inventoryContainer.getSlot(i).getStack().copy());
+        }
+        InventoryEnderChest enderInventory = player.getInventoryEnderChest();
+        enderChest = NonNullList.withSize(enderInventory.getSizeInventory(), ItemStack.EMPTY);
+        for (int i = 0; i < enderChest.size(); i++) {
+            enderChest.set(i, enderInventory.getStackInSlot(i).copy());
+        }
+        health = player.getHealth();
+        food = player.getFoodStats().getFoodLevel();
+        saturation = player.getFoodStats().getSaturationLevel();
+        experience = player.experience;
+        experienceTotal = player.experienceTotal;
+        experienceLevel = player.experienceLevel;
+        currentItem = player.inventory.currentItem;
+        PlayerCapabilities capabilities = player.capabilities;
+        disableDamage = capabilities.disableDamage;
+        isFlying = capabilities.isFlying;
+        allowFlying = capabilities.allowFlying;
+        isCreativeMode = capabilities.isCreativeMode;
+        flySpeed = capabilities.getFlySpeed();
+        walkSpeed = capabilities.getWalkSpeed();
+    }
+
+    public static SwitchyClientSync capture(EntityPlayerMP player) {
+        return new SwitchyClientSync(player);
+    }
+
+    public void send(EntityPlayerMP player) {
+        Container inventoryContainer = player.inventoryContainer;
+        int size = Math.min(container.size(), inventoryContainer.inventorySlots.size());
+        boolean[] changed = new boolean[size];
+        int changedCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (!ItemStack.areItemStacksEqual(container.get(i), inventoryContainer.getSlot(i).getStack())) {
+                changed[i] = true;
+                changedCount++;
+            }
+        }
+        if (changedCount * 2 > size) {
+            player.sendContainerToPlayer(inventoryContainer);
+        } else if (changedCount > 0) {
+            for (int i = 0; i < size; i++) {
+                if (changed[i]) {
+                    ItemStack stack = inventoryContainer.getSlot(i).getStack();
+                    // keep the container's last-sent copy in step so detectAndSendChanges doesn't resend it
+                    if (i < inventoryContainer.inventoryItemStacks.size()) {
+                        inventoryContainer.inventoryItemStacks.set(i, stack.copy());
+                    }
+                    player.connection.sendPacket(new SPacketSetSlot(inventoryContainer.windowId, i, stack));
+                }
+            }
+        }
+
+        if (player.openContainer != inventoryContainer) {
+            InventoryEnderChest enderInventory = player.getInventoryEnderChest();
+            for (int i = 0; i < enderChest.size() && i < enderInventory.getSizeInventory(); i++) {
+                if (!ItemStack.areItemStacksEqual(enderChest.get(i), enderInventory.getStackInSlot(i))) {
+                    // the client only holds ender chest contents while a container showing them is open
+                    player.openContainer.detectAndSendChanges();
+                    break;
+                }
+            }
+        }
+
+        PlayerCapabilities capabilities = player.capabilities;
+        if (disableDamage != capabilities.disableDamage || isFlying != capabilities.isFlying || allowFlying != capabilities.allowFlying
+            || isCreativeMode != capabilities.isCreativeMode || flySpeed != capabilities.getFlySpeed() || walkSpeed != capabilities.getWalkSpeed()) {
+            player.connection.sendPacket(new SPacketPlayerAbilities(capabilities));
+        }
+        if (health != player.getHealth() || food != player.getFoodStats().getFoodLevel() || saturation != player.getFoodStats().getSaturationLevel()) {
+            player.connection.sendPacket(new SPacketUpdateHealth(player.getHealth(), player.getFoodStats().getFoodLevel(), player.getFoodStats().getSaturationLevel()));
+        }
+        if (experience != player.experience || experienceTotal != player.experienceTotal || experienceLevel != player.experienceLevel) {
+            player.connection.sendPacket(new SPacketSetExperience(player.experience, player.experienceTotal, player.experienceLevel));
+        }
+        if (currentItem != player.inventory.currentItem) {
+            player.connection.sendPacket(new SPacketHeldItemChange(player.inventory.currentItem));
+        }
+    }
+}
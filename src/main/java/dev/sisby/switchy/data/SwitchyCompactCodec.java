@@ -0,0 +1,371 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.SwitchyConfig;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTPrimitive;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Lossless binary form of the switchy compound. Component ids are written once per player into a palette
+// and referenced by index, and primitive component values are written as fixed-width fields.
+public class SwitchyCompactCodec {
+    public static final byte VERSION = 1;
+    private static final String KEY = "compact";
+
+    private static final int HAS_CURRENT = 1;
+    private static final int HAS_GREETING = 2;
+    private static final int HAS_COMPONENT_TYPES = 4;
+    private static final int HAS_PROFILES = 8;
+    private static final int HAS_EXTRA = 16;
+
+    private static final int PROFILE_HAS_ID = 1;
+    private static final int PROFILE_ID_IS_KEY = 2;
+    private static final int PROFILE_HAS_COMPONENTS = 4;
+    private static final int PROFILE_HAS_EXTRA = 8;
+
+    private static final int KIND_NBT = 0;
+    private static final int KIND_BYTE = 1;
+    private static final int KIND_INT = 3;
+    private static final int KIND_FLOAT = 5;
+    private static final int KIND_DOUBLE = 6;
+    private static final int KIND_STRING = 8;
+    private static final int KIND_DOUBLE_LIST = 64;
+
+    public static boolean isCompact(NBTTagCompound switchyNbt) {
+        return switchyNbt.hasKey(KEY, 7);
+    }
+
+    public static NBTTagCompound compact(NBTTagCompound switchyNbt) {
+        NBTTagCompound compact = new NBTTagCompound();
+        compact.setByteArray(KEY, encode(switchyNbt));
+        return compact;
+    }
+
+    public static NBTTagCompound expand(NBTTagCompound switchyNbt) {
+        if (!isCompact(switchyNbt)) return switchyNbt;
+        try {
+            return decode(switchyNbt.getByteArray(KEY));
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt compact switchy data", e);
+        }
+    }
+
+    public static NBTTagCompound compactPlayerNbt(NBTTagCompound playerNbt) {
+        NBTTagCompound compact = new NBTTagCompound();
+        for (String key : playerNbt.getKeySet()) {
+            NBTBase tag = playerNbt.getTag(key);
+            compact.setTag(key, key.equals(Switchy.ID) && tag instanceof NBTTagCompound ? compact((NBTTagCompound) tag) : tag);
+        }
+        return compact;
+    }
+
+    // the player file as it's written to disk: inline profiles are compacted, a store pointer is left alone
+    public static NBTTagCompound compactPlayerFile(NBTTagCompound playerNbt) {
+        if (!SwitchyConfig.compactCodec || !playerNbt.hasKey(Switchy.ID, 10) || SwitchyProfileStore.isPointer(playerNbt.getCompoundTag(Switchy.ID))) return playerNbt;
+        return compactPlayerNbt(playerNbt);
+    }
+
+    public static byte[] encode(NBTTagCompound switchyNbt) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            List<String> palette = new ArrayList<>();
+            Map<String, Integer> indices = new LinkedHashMap<>();
+
+            int flags = 0;
+            if (switchyNbt.hasKey("current", 8)) flags |= HAS_CURRENT;
+            if (switchyNbt.hasKey("greeting", 8)) flags |= HAS_GREETING;
+            NBTTagList componentTypes = null;
+            if (switchyNbt.hasKey("componentTypes", 9)) {
+                NBTTagList list = (NBTTagList) switchyNbt.getTag("componentTypes");
+                if (list.tagCount() == 0 || list.getTagType() == 8) {
+                    componentTypes = list;
+                    flags |= HAS_COMPONENT_TYPES;
+                    for (int i = 0; i < list.tagCount(); i++) {
+                        intern(list.getStringTagAt(i), palette, indices);
+                    }
+                }
+            }
+            NBTTagCompound profiles = null;
+            if (switchyNbt.hasKey("profiles", 10) && allCompounds(switchyNbt.getCompoundTag("profiles"))) {
+                profiles = switchyNbt.getCompoundTag("profiles");
+                flags |= HAS_PROFILES;
+                for (String profileKey : profiles.getKeySet()) {
+                    NBTTagCompound profile = profiles.getCompoundTag(profileKey);
+                    if (profile.hasKey("components", 10)) {
+                        for (String componentKey : profile.getCompoundTag("components").getKeySet()) {
+                            intern(componentKey, palette, indices);
+                        }
+                    }
+                }
+            }
+            NBTTagCompound extra = extra(switchyNbt, flags, "current", HAS_CURRENT, "greeting", HAS_GREETING, "componentTypes", HAS_COMPONENT_TYPES, "profiles", HAS_PROFILES);
+            if (!extra.isEmpty()) flags |= HAS_EXTRA;
+
+            out.writeByte(VERSION);
+            writeVarInt(out, palette.size());
+            for (String id : palette) {
+                out.writeUTF(id);
+            }
+            out.writeByte(flags);
+            if ((flags & HAS_CURRENT) != 0) out.writeUTF(switchyNbt.getString("current"));
+            if ((flags & HAS_GREETING) != 0) out.writeUTF(switchyNbt.getString("greeting"));
+            if (componentTypes != null) {
+                writeVarInt(out, componentTypes.tagCount());
+                for (int i = 0; i < componentTypes.tagCount(); i++) {
+                    writeVarInt(out, indices.get(componentTypes.getStringTagAt(i)));
+                }
+            }
+            if (profiles != null) {
+                writeVarInt(out, profiles.getSize());
+                for (String profileKey : profiles.getKeySet()) {
+                    writeProfile(out, profileKey, profiles.getCompoundTag(profileKey), indices);
+                }
+            }
+            if ((flags & HAS_EXTRA) != 0) CompressedStreamTools.write(extra, out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // a single components compound, as kept in memory for evicted profiles
+    public static byte[] encodeComponents(NBTTagCompound components) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            writeVarInt(out, components.getSize());
+            for (String key : components.getKeySet()) {
+                out.writeUTF(key);
+                writeValue(out, components.getTag(key));
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static NBTTagCompound decodeComponents(byte[] data) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported compact components version " + version);
+            NBTTagCompound components = new NBTTagCompound();
+            int count = readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                components.setTag(key, readValue(in));
+            }
+            return components;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static NBTTagCompound decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Unsupported compact switchy data version " + version);
+        String[] palette = new String[readVarInt(in)];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = in.readUTF();
+        }
+
+        NBTTagCompound switchyNbt = new NBTTagCompound();
+        int flags = in.readUnsignedByte();
+        if ((flags & HAS_CURRENT) != 0) switchyNbt.setString("current", in.readUTF());
+        if ((flags & HAS_GREETING) != 0) switchyNbt.setString("greeting", in.readUTF());
+        if ((flags & HAS_COMPONENT_TYPES) != 0) {
+            NBTTagList componentTypes = new NBTTagList();
+            int count = readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                componentTypes.appendTag(new NBTTagString(palette[readVarInt(in)]));
+            }
+            switchyNbt.setTag("componentTypes", componentTypes);
+        }
+        if ((flags & HAS_PROFILES) != 0) {
+            NBTTagCompound profiles = new NBTTagCompound();
+            int count = readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                String profileKey = in.readUTF();
+                profiles.setTag(profileKey, readProfile(in, profileKey, palette));
+            }
+            switchyNbt.setTag("profiles", profiles);
+        }
+        if ((flags & HAS_EXTRA) != 0) switchyNbt.merge(CompressedStreamTools.read(in));
+        return switchyNbt;
+    }
+
+    private static void writeProfile(DataOutput out, String profileKey, NBTTagCompound profile, Map<String, Integer> indices) throws IOException {
+        int flags = 0;
+        if (profile.hasKey("id", 8)) flags |= profile.getString("id").equals(profileKey) ? PROFILE_ID_IS_KEY : PROFILE_HAS_ID;
+        if (profile.hasKey("components", 10)) flags |= PROFILE_HAS_COMPONENTS;
+        NBTTagCompound extra = extra(profile, flags, "id", PROFILE_HAS_ID | PROFILE_ID_IS_KEY, "components", PROFILE_HAS_COMPONENTS);
+        if (!extra.isEmpty()) flags |= PROFILE_HAS_EXTRA;
+
+        out.writeUTF(profileKey);
+        out.writeByte(flags);
+        if ((flags & PROFILE_HAS_ID) != 0) out.writeUTF(profile.getString("id"));
+        if ((flags & PROFILE_HAS_COMPONENTS) != 0) {
+            NBTTagCompound components = profile.getCompoundTag("components");
+            writeVarInt(out, components.getSize());
+            for (String key : components.getKeySet()) {
+                writeVarInt(out, indices.get(key));
+                writeValue(out, components.getTag(key));
+            }
+        }
+        if ((flags & PROFILE_HAS_EXTRA) != 0) CompressedStreamTools.write(extra, out);
+    }
+
+    private static NBTTagCompound readProfile(DataInputStream in, String profileKey, String[] palette) throws IOException {
+        NBTTagCompound profile = new NBTTagCompound();
+        int flags = in.readUnsignedByte();
+        if ((flags & PROFILE_ID_IS_KEY) != 0) profile.setString("id", profileKey);
+        if ((flags & PROFILE_HAS_ID) != 0) profile.setString("id", in.readUTF());
+        if ((flags & PROFILE_HAS_COMPONENTS) != 0) {
+            NBTTagCompound components = new NBTTagCompound();
+            int count = readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                String key = palette[readVarInt(in)];
+                components.setTag(key, readValue(in));
+            }
+            profile.setTag("components", components);
+        }
+        if ((flags & PROFILE_HAS_EXTRA) != 0) profile.merge(CompressedStreamTools.read(in));
+        return profile;
+    }
+
+    private static void writeValue(DataOutput out, NBTBase tag) throws IOException {
+        switch (tag.getId()) {
+            case KIND_BYTE:
+                out.writeByte(KIND_BYTE);
+                out.writeByte(((NBTPrimitive) tag).getByte());
+                return;
+            case KIND_INT:
+                out.writeByte(KIND_INT);
+                out.writeInt(((NBTPrimitive) tag).getInt());
+                return;
+            case KIND_FLOAT:
+                out.writeByte(KIND_FLOAT);
+                out.writeFloat(((NBTPrimitive) tag).getFloat());
+                return;
+            case KIND_DOUBLE:
+                out.writeByte(KIND_DOUBLE);
+                out.writeDouble(((NBTPrimitive) tag).getDouble());
+                return;
+            case KIND_STRING:
+                out.writeByte(KIND_STRING);
+                out.writeUTF(((NBTTagString) tag).getString());
+                return;
+            case 9:
+                NBTTagList list = (NBTTagList) tag;
+                if (list.tagCount() > 0 && list.getTagType() == 6) {
+                    out.writeByte(KIND_DOUBLE_LIST);
+                    writeVarInt(out, list.tagCount());
+                    for (int i = 0; i < list.tagCount(); i++) {
+                        out.writeDouble(list.getDoubleAt(i));
+                    }
+                    return;
+                }
+        }
+        NBTTagCompound wrapper = new NBTTagCompound();
+        wrapper.setTag("v", tag);
+        out.writeByte(KIND_NBT);
+        CompressedStreamTools.write(wrapper, out);
+    }
+
+    private static NBTBase readValue(DataInputStream in) throws IOException {
+        int kind = in.readUnsignedByte();
+        switch (kind) {
+            case KIND_BYTE:
+                return new NBTTagByte(in.readByte());
+            case KIND_INT:
+                return new NBTTagInt(in.readInt());
+            case KIND_FLOAT:
+                return new NBTTagFloat(in.readFloat());
+            case KIND_DOUBLE:
+                return new NBTTagDouble(in.readDouble());
+            case KIND_STRING:
+                return new NBTTagString(in.readUTF());
+            case KIND_DOUBLE_LIST:
+                NBTTagList list = new NBTTagList();
+                int count = readVarInt(in);
+                for (int i = 0; i < count; i++) {
+                    list.appendTag(new NBTTagDouble(in.readDouble()));
+                }
+                return list;
+            case KIND_NBT:
+                return CompressedStreamTools.read(in).getTag("v");
+            default:
+                throw new IOException("Unknown compact value kind " + kind);
+        }
+    }
+
+    // everything the fixed layout didn't claim, given alternating key/flag pairs
+    private static NBTTagCompound extra(NBTTagCompound compound, int flags, Object... claimed) {
+        NBTTagCompound extra = new NBTTagCompound();
+        outer:
+        for (String key : compound.getKeySet()) {
+            for (int i = 0; i < claimed.length; i += 2) {
+                if (claimed[i].equals(key) && (flags & (Integer) claimed[i + 1]) != 0) continue outer;
+            }
+            extra.setTag(key, compound.getTag(key));
+        }
+        return extra;
+    }
+
+    private static boolean allCompounds(NBTTagCompound compound) {
+        for (String key : compound.getKeySet()) {
+            if (compound.getTagId(key) != 10) return false;
+        }
+        return true;
+    }
+
+    private static void intern(String id, List<String> palette, Map<String, Integer> indices) {
+        if (!indices.containsKey(id)) {
+            indices.put(id, palette.size());
+            palette.add(id);
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarInt too long");
+    }
+}
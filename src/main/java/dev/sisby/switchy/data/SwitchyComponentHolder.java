@@ -13,6 +13,7 @@ public interface SwitchyComponentHolder<T extends SwitchyComponentHolder<T>> {
         return components().getOrDefault(type, fallback);
     }
     
+    @SuppressWarnings("unchecked")
     default <V> V getOrGetDefault(SwitchyComponentType<? extends V> type, java.util.function.Function<T, V> defaultProvider) {
         V value = get(type);
         return value != null ? value : defaultProvider.apply((T) this);
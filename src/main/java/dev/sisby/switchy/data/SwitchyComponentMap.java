@@ -1,6 +1,8 @@
 package dev.sisby.switchy.data;
 
 import dev.sisby.switchy.util.FormatUtils;
+import dev.sisby.switchy.util.NBTSizes;
+import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.text.ITextComponent;
@@ -8,37 +10,220 @@ import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextFormatting;
 
 import javax.annotation.Nullable;
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+// values are immutable once stored: profiles, staged switches and saved compounds may all share one instance. they're
+// copied only where they meet the live player's NBT, which could change without the map noticing.
+// anything that needs to change a value goes through modify(), which copies it first
 public class SwitchyComponentMap {
-    private final Map<SwitchyComponentType<?>, Object> map;
+    private static final AtomicLong REVISIONS = new AtomicLong();
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final long[] NO_BITS = new long[0];
+    // stands in for a primitive component's value, which lives unboxed in its slot of bits
+    private static final Object PRIMITIVE = new Object();
+    // component key to the schema version its value was saved at, for types past version 0
+    static final String VERSIONS = "versions";
+
+    // values indexed by type ordinal; a set bit marks a present component, which may still hold null
+    private Object[] values = NO_VALUES;
+    private long[] bits = NO_BITS;
+    private BitSet present = new BitSet();
+    private final Set<SwitchyComponentType<?>> keys = new KeySet();
+    private long revision;
+    // the current profile's map is pinned and never handed to the profile cache
+    private boolean pinned;
+    // maps built from an offline player's file, possibly off the server thread; they never enter the profile cache
+    private boolean detached;
+    private long estimatedSize;
+    // compact bytes of a map the profile cache evicted
+    @Nullable
+    private byte[] packed;
+    // profiles loaded from disk stay as their saved compound until something reads them
+    @Nullable
+    private NBTTagCompound raw;
+    // last compound loaded or written for this map, dropped whenever a component changes
+    @Nullable
+    private NBTTagCompound serialized;
+    // changed since the last load or encode; eviction drops the compound but not this
+    private boolean dirty = true;
+    @Nullable
+    private SwitchyComponentTypes serializedTypes;
 
     public static SwitchyComponentMap empty() {
-        return create(new HashMap<>());
+        return new SwitchyComponentMap();
+    }
+
+    private SwitchyComponentMap() {
+    }
+
+    public static SwitchyComponentMap lazy(NBTTagCompound nbt, SwitchyComponentTypes types) {
+        SwitchyComponentMap components = new SwitchyComponentMap();
+        components.raw = nbt;
+        components.serialized = nbt;
+        components.serializedTypes = types;
+        components.dirty = false;
+        components.estimatedSize = NBTSizes.sizeOf(nbt);
+        return components;
+    }
+
+    public boolean isDecoded() {
+        return raw == null && packed == null;
+    }
+
+    public void setPinned(boolean pinned) {
+        if (detached) return;
+        this.pinned = pinned;
+        if (pinned) {
+            SwitchyProfileCache.release(this);
+        } else if (isDecoded()) {
+            SwitchyProfileCache.track(this);
+        }
+    }
+
+    void detach() {
+        detached = true;
+        pinned = true;
+    }
+
+    // serialized size as of the last load or encode; changes since then are counted at the next save
+    public long estimatedSize() {
+        return estimatedSize;
+    }
+
+    void evict() {
+        if (!isDecoded()) return;
+        packed = SwitchyCompactCodec.encodeComponents(toNBT(SwitchyComponentTypes.instance()));
+        values = NO_VALUES;
+        bits = NO_BITS;
+        present = new BitSet();
+        serialized = null;
+        serializedTypes = null;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void markDirty() {
+        dirty = true;
+        serialized = null;
+        serializedTypes = null;
+        revision = nextRevision();
+    }
+
+    public long revision() {
+        return revision;
+    }
+
+    public static long nextRevision() {
+        return REVISIONS.incrementAndGet();
+    }
+
+    public static long currentRevision() {
+        return REVISIONS.get();
+    }
+
+    private SwitchyComponentMap decoded() {
+        if (packed != null) {
+            raw = SwitchyCompactCodec.decodeComponents(packed);
+            serialized = raw;
+            serializedTypes = SwitchyComponentTypes.instance();
+            packed = null;
+        }
+        if (raw != null) {
+            boolean upgraded = decodeInto(this, raw, serializedTypes);
+            raw = null;
+            // saved at an older schema, so the stored compound is stale and gets rewritten on the next save
+            if (upgraded) markDirty();
+            if (!pinned) SwitchyProfileCache.onDecoded(this);
+        }
+        return this;
+    }
+
+    @Nullable
+    private Object value(int ordinal) {
+        return ordinal < values.length ? values[ordinal] : null;
+    }
+
+    @Nullable
+    private Object put(int ordinal, @Nullable Object value) {
+        if (ordinal >= values.length) {
+            values = Arrays.copyOf(values, Math.max(ordinal + 1, SwitchyComponentTypes.ordinalCount()));
+        }
+        Object previous = values[ordinal];
+        values[ordinal] = value;
+        present.set(ordinal);
+        return previous;
+    }
+
+    @Nullable
+    private Object boxed(SwitchyComponentType<?> type, @Nullable Object value) {
+        if (value != PRIMITIVE) return value;
+        SwitchyComponentType.PrimitiveComponentType<?> primitive = (SwitchyComponentType.PrimitiveComponentType<?>) type;
+        return primitive.box(bits[primitive.slot()]);
+    }
+
+    boolean hasBits(SwitchyComponentType.PrimitiveComponentType<?> type) {
+        return decoded().value(type.ordinal()) == PRIMITIVE;
     }
 
-    private static SwitchyComponentMap create(Map<SwitchyComponentType<?>, Object> components) {
-        return new SwitchyComponentMap(new HashMap<>(components));
+    long getBits(SwitchyComponentType.PrimitiveComponentType<?> type) {
+        return bits[type.slot()];
     }
 
-    private SwitchyComponentMap(Map<SwitchyComponentType<?>, Object> map) {
-        this.map = map;
+    void setBits(SwitchyComponentType.PrimitiveComponentType<?> type, long value) {
+        if (hasBits(type) && bits[type.slot()] == value) return;
+        markDirty();
+        putBits(type, value);
+    }
+
+    private void putBits(SwitchyComponentType.PrimitiveComponentType<?> type, long value) {
+        int slot = type.slot();
+        if (slot >= bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(slot + 1, SwitchyComponentTypes.slotCount()));
+        }
+        bits[slot] = value;
+        put(type.ordinal(), PRIMITIVE);
+    }
+
+    public int getInt(SwitchyComponentType.IntComponentType type, int fallback) {
+        return hasBits(type) ? (int) bits[type.slot()] : fallback;
+    }
+
+    public float getFloat(SwitchyComponentType.FloatComponentType type, float fallback) {
+        return hasBits(type) ? Float.intBitsToFloat((int) bits[type.slot()]) : fallback;
+    }
+
+    public void setInt(SwitchyComponentType.IntComponentType type, int value) {
+        setBits(type, value);
+    }
+
+    public void setFloat(SwitchyComponentType.FloatComponentType type, float value) {
+        setBits(type, Float.floatToIntBits(value));
     }
 
     @SuppressWarnings("unchecked")
     @Nullable
     public <T> T get(SwitchyComponentType<? extends T> type) {
-        return (T) this.map.get(type);
+        return (T) boxed(type, decoded().value(type.ordinal()));
     }
 
     public boolean contains(SwitchyComponentType<?> type) {
-        return this.map.containsKey(type);
+        return decoded().present.get(type.ordinal());
     }
 
     public <T> T getOrDefault(SwitchyComponentType<? extends T> type, T fallback) {
@@ -47,30 +232,60 @@ public class SwitchyComponentMap {
     }
 
     public Set<SwitchyComponentType<?>> keySet() {
-        return this.map.keySet();
+        return decoded().keys;
     }
 
     public int size() {
-        return this.map.size();
+        return decoded().present.cardinality();
     }
 
     @Override
     public String toString() {
-        return map.entrySet().stream()
-            .map(e -> String.format("%s: %s", e.getKey().id().getPath(), Objects.toString(e.getValue())))
+        return keySet().stream()
+            .map(type -> String.format("%s: %s", type.id().getPath(), Objects.toString(boxed(type, value(type.ordinal())))))
             .collect(Collectors.joining("\n"));
     }
 
     @SuppressWarnings("unchecked")
     @Nullable
     public <T> T set(SwitchyComponentType<? extends T> type, @Nullable T value) {
-        return (T) this.map.put(type, value);
+        decoded();
+        markDirty();
+        Object previous = boxed(type, value(type.ordinal()));
+        if (value != null && type instanceof SwitchyComponentType.PrimitiveComponentType) {
+            putBits((SwitchyComponentType.PrimitiveComponentType<?>) type, ((SwitchyComponentType.PrimitiveComponentType<T>) type).unbox(value));
+        } else {
+            put(type.ordinal(), value);
+        }
+        return (T) previous;
+    }
+
+    // recapturing a value equal to the stored one leaves the map clean, so its saved form is reused
+    public <T> void setIfChanged(SwitchyComponentType<T> type, @Nullable T value) {
+        if (contains(type) && type.valuesEqual(get(type), value)) return;
+        set(type, value);
+    }
+
+    public <T> void modify(SwitchyComponentType<T> type, Consumer<? super T> mutator) {
+        if (type.valueCopier() == null) {
+            throw new IllegalArgumentException(String.format("Component %s has no copier, so its values can't be modified", type.id()));
+        }
+        T copy = type.copyValue(get(type));
+        if (copy == null) return;
+        mutator.accept(copy);
+        set(type, copy);
     }
 
     @SuppressWarnings("unchecked")
     @Nullable
     public <T> T remove(SwitchyComponentType<? extends T> type) {
-        return (T) this.map.remove(type);
+        int ordinal = type.ordinal();
+        if (!decoded().present.get(ordinal)) return null;
+        markDirty();
+        Object previous = boxed(type, values[ordinal]);
+        values[ordinal] = null;
+        present.clear(ordinal);
+        return (T) previous;
     }
 
     public List<ITextComponent> asTexts() {
@@ -103,37 +318,133 @@ public class SwitchyComponentMap {
         return result;
     }
 
+    // the saved form for another thread to read. live values are serialized here, on the calling thread;
+    // only the packed bytes of an evicted map are left for the reader to decode
+    Supplier<NBTTagCompound> storedForm(SwitchyComponentTypes types) {
+        byte[] packed = this.packed;
+        if (packed != null) return () -> SwitchyCompactCodec.decodeComponents(packed);
+        NBTTagCompound nbt = toNBT(types);
+        return () -> nbt;
+    }
+
     public NBTTagCompound toNBT(SwitchyComponentTypes types) {
+        if (serialized != null && serializedTypes == types) return serialized;
+        if (packed != null) return SwitchyCompactCodec.decodeComponents(packed);
+
+        NBTTagCompound nbt = encode(types, decoded().keys);
+        serialized = nbt;
+        serializedTypes = types;
+        dirty = false;
+        estimatedSize = NBTSizes.sizeOf(nbt);
+        if (!pinned) SwitchyProfileCache.resize(this);
+        return nbt;
+    }
+
+    // just the given components, for the journal; not cached
+    public NBTTagCompound toNBT(SwitchyComponentTypes types, Collection<SwitchyComponentType<?>> only) {
+        return decoded().encode(types, only);
+    }
+
+    private NBTTagCompound encode(SwitchyComponentTypes types, Collection<SwitchyComponentType<?>> keys) {
         NBTTagCompound nbt = new NBTTagCompound();
+        NBTTagCompound versions = null;
         
-        for (Map.Entry<SwitchyComponentType<?>, Object> entry : map.entrySet()) {
-            SwitchyComponentType<?> type = entry.getKey();
-            Object value = entry.getValue();
+        for (SwitchyComponentType<?> type : keys) {
+            Object value = value(type.ordinal());
             if (value != null) {
-                ResourceLocation id = types.id(type);
-                if (id != null) {
-                    nbt.setTag(id.toString(), type.toNBT(value));
+                String key = types.key(type);
+                if (key != null) {
+                    nbt.setTag(key, toNBT(type, value));
+                    int version = type.schemaVersion();
+                    if (version > 0) {
+                        if (versions == null) versions = new NBTTagCompound();
+                        versions.setInteger(key, version);
+                    }
                 }
             }
         }
-        
+        if (versions != null) nbt.setTag(VERSIONS, versions);
         return nbt;
     }
 
+    private NBTBase toNBT(SwitchyComponentType<?> type, Object value) {
+        if (value != PRIMITIVE) return type.toNBT(value);
+        SwitchyComponentType.PrimitiveComponentType<?> primitive = (SwitchyComponentType.PrimitiveComponentType<?>) type;
+        return primitive.toTag(bits[primitive.slot()]);
+    }
+
     public static SwitchyComponentMap fromNBT(NBTTagCompound nbt, SwitchyComponentTypes types) {
-        Map<SwitchyComponentType<?>, Object> components = new HashMap<>();
-        
+        SwitchyComponentMap components = new SwitchyComponentMap();
+        decodeInto(components, nbt, types);
+        return components;
+    }
+
+    // true if any value was upgraded from an older schema version
+    private static boolean decodeInto(SwitchyComponentMap components, NBTTagCompound nbt, SwitchyComponentTypes types) {
+        NBTTagCompound versions = nbt.getCompoundTag(VERSIONS);
+        boolean upgraded = false;
         for (String key : nbt.getKeySet()) {
-            ResourceLocation id = new ResourceLocation(key);
-            SwitchyComponentType<?> type = types.get(id);
-            if (type != null) {
-                Object value = type.fromNBT(nbt.getTag(key));
+            if (key.equals(VERSIONS)) continue;
+            SwitchyComponentType<?> type = types.get(key);
+            if (type == null) continue;
+            NBTBase tag = nbt.getTag(key);
+            int version = versions.getInteger(key);
+            if (version < type.schemaVersion()) {
+                tag = type.upgrade(tag, version);
+                upgraded = true;
+            }
+            if (type instanceof SwitchyComponentType.PrimitiveComponentType) {
+                SwitchyComponentType.PrimitiveComponentType<?> primitive = (SwitchyComponentType.PrimitiveComponentType<?>) type;
+                components.putBits(primitive, primitive.fromTag(tag));
+            } else {
+                Object value = type.fromNBT(tag);
                 if (value != null) {
-                    components.put(type, value);
+                    components.put(type.ordinal(), value);
                 }
             }
         }
-        
-        return create(components);
+        return upgraded;
+    }
+
+    // views re-decode on access; iterators walk a snapshot, since the cache may evict the map between steps
+    private class KeySet extends AbstractSet<SwitchyComponentType<?>> {
+        @Override
+        public Iterator<SwitchyComponentType<?>> iterator() {
+            return new Iterator<SwitchyComponentType<?>>() {
+                private final BitSet present = (BitSet) decoded().present.clone();
+                private int next = present.nextSetBit(0);
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                @Override
+                public SwitchyComponentType<?> next() {
+                    if (next < 0) throw new NoSuchElementException();
+                    last = next;
+                    next = present.nextSetBit(next + 1);
+                    return SwitchyComponentTypes.byOrdinal(last);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) throw new IllegalStateException();
+                    SwitchyComponentMap.this.remove(SwitchyComponentTypes.byOrdinal(last));
+                    last = -1;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return decoded().present.cardinality();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof SwitchyComponentType && decoded().present.get(((SwitchyComponentType<?>) o).ordinal());
+        }
     }
 }
@@ -2,16 +2,23 @@ package dev.sisby.switchy.data;
 
 import dev.sisby.switchy.exception.ComponentFailedInitializeException;
 import dev.sisby.switchy.exception.NbtException;
+import dev.sisby.switchy.util.NBTSerializers;
 import dev.sisby.switchy.util.TypeRegistry;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTPrimitive;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.TextComponentString;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -21,6 +28,20 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         return new SwitchyComponentType.Builder<>(id);
     }
 
+    static IntComponentType.Builder intBuilder(ResourceLocation id) {
+        return new IntComponentType.Builder(id);
+    }
+
+    static FloatComponentType.Builder floatBuilder(ResourceLocation id) {
+        return new FloatComponentType.Builder(id);
+    }
+
+    // dense index assigned when the type is registered, used to store values in arrays rather than hash maps.
+    // types outside SimpleSwitchyComponentType look theirs up
+    default int ordinal() {
+        return SwitchyComponentTypes.ordinalOf(this);
+    }
+
     @Nullable Initializer<T> initializer();
 
     @Nullable NbtReader<T> nbtReader();
@@ -37,21 +58,64 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
 
     @Nullable NBTSerializer<T> nbtSerializer();
 
+    // both optional: without an equality values compare with equals(), and without a copier they can't be modified
+    @Nullable
+    default ValueEquality<T> valueEquality() {
+        return null;
+    }
+
+    @Nullable
+    default ValueCopier<T> valueCopier() {
+        return null;
+    }
+
+    // in order: upgrader i takes a saved value from schema version i to i + 1
+    default List<NbtUpgrader> upgraders() {
+        return Collections.emptyList();
+    }
+
     @Nullable ResourceLocation group();
 
     boolean hidden();
 
     int previewPriority();
 
+    // the version values are saved at; types without upgraders stay at 0 and save no version
+    default int schemaVersion() {
+        return upgraders().size();
+    }
+
+    default NBTBase upgrade(NBTBase tag, int fromVersion) {
+        List<NbtUpgrader> upgraders = upgraders();
+        for (int version = fromVersion; version < upgraders.size(); version++) {
+            tag = upgraders.get(version).upgrade(tag);
+        }
+        return tag;
+    }
+
     default void tryInitialize(Collection<SwitchyComponentMap> consumer, NBTTagCompound nbt, EntityPlayerMP player, String profileId) {
         Initializer<T> initializer = initializer();
         if (initializer == null) return;
         T value = initializer.initialize(nbt, player, profileId);
+        // stored values are immutable, so every profile can share the one instance
         for (SwitchyComponentMap c : consumer) {
             c.set(this, value);
         }
     }
 
+    // captures the live value, or returns false if this component can only be read from the player's NBT
+    default boolean tryReadPlayer(SwitchyComponentMap components, EntityPlayerMP player, String profileId) {
+        PlayerReader<T> playerReader = playerReader();
+        if (playerReader == null) return false;
+        components.setIfChanged(this, playerReader.read(player, profileId));
+        return true;
+    }
+
+    default void tryReadNbt(SwitchyComponentMap components, NBTTagCompound playerData) throws NbtException {
+        NbtReader<T> nbtReader = nbtReader();
+        if (nbtReader != null) components.setIfChanged(this, nbtReader.read(playerData));
+    }
+
     default void tryMutate(SwitchyComponentMap components, NBTTagCompound playerData, EntityPlayerMP player) throws NbtException {
         NbtMutator<T> nbtMutator = nbtMutator();
         PlayerMutator<T> playerMutator = playerMutator();
@@ -62,6 +126,44 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         }
     }
 
+    default boolean tryMutateStaged(NBTBase staged, NBTTagCompound playerData) {
+        NbtMutator<T> nbtMutator = nbtMutator();
+        if (!(nbtMutator instanceof NbtSwitcher)) return false;
+        ((NbtSwitcher<T>) nbtMutator).mutateTag(staged, playerData);
+        return true;
+    }
+
+    // runs off the main thread on the value's saved tag, which is all a switcher writes into the player nbt
+    @Nullable
+    default NBTBase tryStage(NBTBase stored) {
+        if (!(nbtMutator() instanceof NbtSwitcher)) return null;
+        return stored.copy();
+    }
+
+    default boolean tryMutatePlayer(SwitchyComponentMap components, EntityPlayerMP player) {
+        PlayerMutator<T> playerMutator = playerMutator();
+        if (playerMutator == null) return false;
+        playerMutator.mutate(components.get(this), player);
+        return true;
+    }
+
+    default boolean valueEquals(SwitchyComponentMap a, SwitchyComponentMap b) {
+        return valuesEqual(a.get(this), b.get(this));
+    }
+
+    default boolean valuesEqual(@Nullable T a, @Nullable T b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        ValueEquality<T> valueEquality = valueEquality();
+        return valueEquality != null ? valueEquality.test(a, b) : a.equals(b);
+    }
+
+    @Nullable
+    default T copyValue(@Nullable T value) {
+        ValueCopier<T> valueCopier = valueCopier();
+        return value != null && valueCopier != null ? valueCopier.copy(value) : value;
+    }
+
     default ITextComponent asText(T value) {
         TextProvider<T> textProvider = textProvider();
         if (textProvider != null) {
@@ -83,6 +185,7 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         return false;
     }
 
+    @SuppressWarnings("unchecked")
     default NBTBase toNBT(Object value) {
         NBTSerializer<T> serializer = nbtSerializer();
         if (serializer != null) {
@@ -134,6 +237,43 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         ITextComponent toText(T value);
     }
 
+    @FunctionalInterface
+    interface IntPlayerReader {
+        int read(EntityPlayerMP player, String profileId);
+    }
+
+    @FunctionalInterface
+    interface IntPlayerMutator {
+        void mutate(int value, EntityPlayerMP player);
+    }
+
+    @FunctionalInterface
+    interface FloatPlayerReader {
+        float read(EntityPlayerMP player, String profileId);
+    }
+
+    @FunctionalInterface
+    interface FloatPlayerMutator {
+        void mutate(float value, EntityPlayerMP player);
+    }
+
+    // only called with two non-null values
+    @FunctionalInterface
+    interface ValueEquality<T> {
+        boolean test(T a, T b);
+    }
+
+    @FunctionalInterface
+    interface ValueCopier<T> {
+        T copy(T value);
+    }
+
+    // saved tags can be shared with other profiles, so return a new tag rather than changing the one passed in
+    @FunctionalInterface
+    interface NbtUpgrader {
+        NBTBase upgrade(NBTBase tag);
+    }
+
     interface NBTSerializer<T> {
         NBTBase toNBT(T value);
         T fromNBT(NBTBase nbt);
@@ -182,6 +322,8 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         }
     }
 
+    // the player's NBT is adopted and changed by the game, so a value a serializer passes straight through is copied
+    // on its way in or out of it
     class NbtSwitcher<T> implements NbtMutator<T>, NbtReader<T> {
         private final String nbtPath;
         private final NBTSerializer<T> serializer;
@@ -192,12 +334,14 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public T read(NBTTagCompound nbt) throws NbtException {
             if (!nbt.hasKey(nbtPath)) {
                 return null;
             }
             NBTBase tag = nbt.getTag(nbtPath);
-            return serializer.fromNBT(tag);
+            T value = serializer.fromNBT(tag);
+            return value == tag ? (T) tag.copy() : value;
         }
 
         @Override
@@ -206,7 +350,14 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
                 nbt.removeTag(nbtPath);
                 return;
             }
-            nbt.setTag(nbtPath, serializer.toNBT(value));
+            NBTBase tag = serializer.toNBT(value);
+            nbt.setTag(nbtPath, tag == value ? tag.copy() : tag);
+        }
+
+        // staged tags were already copied from the saved ones by tryStage
+
+        public void mutateTag(NBTBase tag, NBTTagCompound nbt) {
+            nbt.setTag(nbtPath, tag);
         }
 
         @Override
@@ -225,9 +376,13 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         @Nullable private final EmptyChecker<T> emptyChecker;
         @Nullable private final TextProvider<T> textProvider;
         @Nullable private final NBTSerializer<T> nbtSerializer;
+        @Nullable private final ValueEquality<T> valueEquality;
+        @Nullable private final ValueCopier<T> valueCopier;
+        private final List<NbtUpgrader> upgraders;
         @Nullable private final ResourceLocation group;
         private final boolean hidden;
         private final int previewPriority;
+        private int ordinal = -1;
 
         public SimpleSwitchyComponentType(
             ResourceLocation id,
@@ -239,6 +394,9 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
             @Nullable EmptyChecker<T> emptyChecker,
             @Nullable TextProvider<T> textProvider,
             @Nullable NBTSerializer<T> nbtSerializer,
+            @Nullable ValueEquality<T> valueEquality,
+            @Nullable ValueCopier<T> valueCopier,
+            List<NbtUpgrader> upgraders,
             @Nullable ResourceLocation group,
             boolean hidden,
             int previewPriority
@@ -252,6 +410,9 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
             this.emptyChecker = emptyChecker;
             this.textProvider = textProvider;
             this.nbtSerializer = nbtSerializer;
+            this.valueEquality = valueEquality;
+            this.valueCopier = valueCopier;
+            this.upgraders = Collections.unmodifiableList(new ArrayList<>(upgraders));
             this.group = group;
             this.hidden = hidden;
             this.previewPriority = previewPriority;
@@ -262,6 +423,15 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
             return id;
         }
 
+        @Override
+        public int ordinal() {
+            return ordinal;
+        }
+
+        void setOrdinal(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
         @Override
         public Initializer<T> initializer() {
             return initializer;
@@ -302,6 +472,21 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
             return nbtSerializer;
         }
 
+        @Override
+        public ValueEquality<T> valueEquality() {
+            return valueEquality;
+        }
+
+        @Override
+        public ValueCopier<T> valueCopier() {
+            return valueCopier;
+        }
+
+        @Override
+        public List<NbtUpgrader> upgraders() {
+            return upgraders;
+        }
+
         @Override
         public ResourceLocation group() {
             return group;
@@ -323,6 +508,321 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         }
     }
 
+    // numeric components, kept unboxed in a slot of the component map's long array.
+    // the generic accessors still work, boxing on the way in and out, but capture, switching and saving don't use them
+    abstract class PrimitiveComponentType<T> extends SimpleSwitchyComponentType<T> {
+        private int slot = -1;
+        @Nullable private final String nbtPath;
+        @Nullable protected final Predicate<EntityPlayerMP> absentIf;
+
+        protected PrimitiveComponentType(PrimitiveBuilder<T, ?> builder, NBTSerializer<T> serializer, @Nullable PlayerReader<T> playerReader, @Nullable PlayerMutator<T> playerMutator) {
+            this(builder, builder.nbtPath != null ? new NbtSwitcher<>(builder.nbtPath, serializer) : null, serializer, playerReader, playerMutator);
+        }
+
+        private PrimitiveComponentType(PrimitiveBuilder<T, ?> builder, @Nullable NbtSwitcher<T> switcher, NBTSerializer<T> serializer, @Nullable PlayerReader<T> playerReader, @Nullable PlayerMutator<T> playerMutator) {
+            super(
+                builder.id,
+                switcher != null ? new CopyInitializer<>(switcher) : null,
+                switcher,
+                switcher,
+                playerReader,
+                playerMutator,
+                null,
+                builder.textProvider,
+                serializer,
+                null,
+                null,
+                builder.upgraders,
+                builder.group,
+                builder.hidden,
+                builder.previewPriority
+            );
+            this.nbtPath = builder.nbtPath;
+            this.absentIf = builder.absentIf;
+        }
+
+        int slot() {
+            return slot;
+        }
+
+        void setSlot(int slot) {
+            this.slot = slot;
+        }
+
+        abstract T box(long bits);
+
+        abstract long unbox(T value);
+
+        abstract NBTBase toTag(long bits);
+
+        abstract long fromTag(NBTBase tag);
+
+        abstract long readPlayer(EntityPlayerMP player, String profileId);
+
+        abstract void mutatePlayer(long bits, EntityPlayerMP player);
+
+        @Override
+        public void tryInitialize(Collection<SwitchyComponentMap> consumer, NBTTagCompound nbt, EntityPlayerMP player, String profileId) {
+            if (nbtPath == null) return;
+            boolean present = nbt.hasKey(nbtPath);
+            long bits = present ? fromTag(nbt.getTag(nbtPath)) : 0L;
+            for (SwitchyComponentMap c : consumer) {
+                if (present) {
+                    c.setBits(this, bits);
+                } else {
+                    c.set(this, null);
+                }
+            }
+        }
+
+        @Override
+        public boolean tryReadPlayer(SwitchyComponentMap components, EntityPlayerMP player, String profileId) {
+            if (playerReader() == null) return false;
+            if (absentIf != null && absentIf.test(player)) {
+                components.setIfChanged(this, null);
+            } else {
+                components.setBits(this, readPlayer(player, profileId));
+            }
+            return true;
+        }
+
+        @Override
+        public void tryReadNbt(SwitchyComponentMap components, NBTTagCompound playerData) {
+            if (nbtPath == null) return;
+            if (playerData.hasKey(nbtPath)) {
+                components.setBits(this, fromTag(playerData.getTag(nbtPath)));
+            } else {
+                components.setIfChanged(this, null);
+            }
+        }
+
+        @Override
+        public void tryMutate(SwitchyComponentMap components, NBTTagCompound playerData, EntityPlayerMP player) {
+            if (nbtPath == null) {
+                tryMutatePlayer(components, player);
+            } else if (components.hasBits(this)) {
+                playerData.setTag(nbtPath, toTag(components.getBits(this)));
+            } else {
+                playerData.removeTag(nbtPath);
+            }
+        }
+
+        @Override
+        public boolean tryMutatePlayer(SwitchyComponentMap components, EntityPlayerMP player) {
+            if (playerMutator() == null) return false;
+            if (components.hasBits(this)) mutatePlayer(components.getBits(this), player);
+            return true;
+        }
+
+        // writing a single tag on the main thread is cheaper than staging it
+        @Nullable
+        @Override
+        public NBTBase tryStage(NBTBase stored) {
+            return null;
+        }
+
+        @Override
+        public boolean valueEquals(SwitchyComponentMap a, SwitchyComponentMap b) {
+            boolean present = a.hasBits(this);
+            if (present != b.hasBits(this)) return false;
+            return !present || a.getBits(this) == b.getBits(this);
+        }
+    }
+
+    class IntComponentType extends PrimitiveComponentType<Integer> {
+        @Nullable private final IntPlayerReader intReader;
+        @Nullable private final IntPlayerMutator intMutator;
+
+        private IntComponentType(Builder builder) {
+            super(
+                builder,
+                NBTSerializers.INT,
+                builder.reader != null ? (player, profileId) -> builder.absentIf != null && builder.absentIf.test(player) ? null : builder.reader.read(player, profileId) : null,
+                builder.mutator != null ? (value, player) -> {
+                    if (value != null) builder.mutator.mutate(value, player);
+                } : null
+            );
+            this.intReader = builder.reader;
+            this.intMutator = builder.mutator;
+        }
+
+        @Override
+        Integer box(long bits) {
+            return (int) bits;
+        }
+
+        @Override
+        long unbox(Integer value) {
+            return value;
+        }
+
+        @Override
+        NBTBase toTag(long bits) {
+            return new NBTTagInt((int) bits);
+        }
+
+        @Override
+        long fromTag(NBTBase tag) {
+            return ((NBTPrimitive) tag).getInt();
+        }
+
+        @Override
+        long readPlayer(EntityPlayerMP player, String profileId) {
+            return intReader.read(player, profileId);
+        }
+
+        @Override
+        void mutatePlayer(long bits, EntityPlayerMP player) {
+            intMutator.mutate((int) bits, player);
+        }
+
+        public static class Builder extends PrimitiveBuilder<Integer, Builder> {
+            @Nullable private IntPlayerReader reader;
+            @Nullable private IntPlayerMutator mutator;
+
+            public Builder(ResourceLocation id) {
+                super(id);
+            }
+
+            public Builder playerReader(@Nullable IntPlayerReader reader) {
+                this.reader = reader;
+                return this;
+            }
+
+            public Builder playerMutator(@Nullable IntPlayerMutator mutator) {
+                this.mutator = mutator;
+                return this;
+            }
+
+            public IntComponentType build() {
+                return new IntComponentType(this);
+            }
+        }
+    }
+
+    class FloatComponentType extends PrimitiveComponentType<Float> {
+        @Nullable private final FloatPlayerReader floatReader;
+        @Nullable private final FloatPlayerMutator floatMutator;
+
+        private FloatComponentType(Builder builder) {
+            super(
+                builder,
+                NBTSerializers.FLOAT,
+                builder.reader != null ? (player, profileId) -> builder.absentIf != null && builder.absentIf.test(player) ? null : builder.reader.read(player, profileId) : null,
+                builder.mutator != null ? (value, player) -> {
+                    if (value != null) builder.mutator.mutate(value, player);
+                } : null
+            );
+            this.floatReader = builder.reader;
+            this.floatMutator = builder.mutator;
+        }
+
+        @Override
+        Float box(long bits) {
+            return Float.intBitsToFloat((int) bits);
+        }
+
+        @Override
+        long unbox(Float value) {
+            return Float.floatToIntBits(value);
+        }
+
+        @Override
+        NBTBase toTag(long bits) {
+            return new NBTTagFloat(Float.intBitsToFloat((int) bits));
+        }
+
+        @Override
+        long fromTag(NBTBase tag) {
+            return Float.floatToIntBits(((NBTPrimitive) tag).getFloat());
+        }
+
+        @Override
+        long readPlayer(EntityPlayerMP player, String profileId) {
+            return Float.floatToIntBits(floatReader.read(player, profileId));
+        }
+
+        @Override
+        void mutatePlayer(long bits, EntityPlayerMP player) {
+            floatMutator.mutate(Float.intBitsToFloat((int) bits), player);
+        }
+
+        public static class Builder extends PrimitiveBuilder<Float, Builder> {
+            @Nullable private FloatPlayerReader reader;
+            @Nullable private FloatPlayerMutator mutator;
+
+            public Builder(ResourceLocation id) {
+                super(id);
+            }
+
+            public Builder playerReader(@Nullable FloatPlayerReader reader) {
+                this.reader = reader;
+                return this;
+            }
+
+            public Builder playerMutator(@Nullable FloatPlayerMutator mutator) {
+                this.mutator = mutator;
+                return this;
+            }
+
+            public FloatComponentType build() {
+                return new FloatComponentType(this);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    abstract class PrimitiveBuilder<T, B extends PrimitiveBuilder<T, B>> {
+        private final ResourceLocation id;
+        @Nullable private String nbtPath;
+        @Nullable Predicate<EntityPlayerMP> absentIf;
+        private final List<NbtUpgrader> upgraders = new ArrayList<>();
+        @Nullable private TextProvider<T> textProvider;
+        @Nullable private ResourceLocation group;
+        private boolean hidden = false;
+        private int previewPriority = 0;
+
+        protected PrimitiveBuilder(ResourceLocation id) {
+            this.id = id;
+        }
+
+        public B nbtSwitcher(String path) {
+            this.nbtPath = path;
+            return (B) this;
+        }
+
+        // captured as null instead of reading the player, e.g. spawn coordinates without a spawn point
+        public B absentIf(@Nullable Predicate<EntityPlayerMP> absentIf) {
+            this.absentIf = absentIf;
+            return (B) this;
+        }
+
+        public B textProvider(@Nullable TextProvider<T> textProvider) {
+            this.textProvider = textProvider;
+            return (B) this;
+        }
+
+        public B upgrader(NbtUpgrader upgrader) {
+            this.upgraders.add(upgrader);
+            return (B) this;
+        }
+
+        public B group(@Nullable ResourceLocation group) {
+            this.group = group;
+            return (B) this;
+        }
+
+        public B hidden(boolean hidden) {
+            this.hidden = hidden;
+            return (B) this;
+        }
+
+        public B previewPriority(int priority) {
+            this.previewPriority = priority;
+            return (B) this;
+        }
+    }
+
     class Builder<T> {
         private final ResourceLocation id;
         @Nullable private Initializer<T> initializer;
@@ -333,6 +833,9 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
         @Nullable private EmptyChecker<T> emptyChecker;
         @Nullable private TextProvider<T> textProvider;
         @Nullable private NBTSerializer<T> nbtSerializer;
+        @Nullable private ValueEquality<T> valueEquality;
+        @Nullable private ValueCopier<T> valueCopier;
+        private final List<NbtUpgrader> upgraders = new ArrayList<>();
         @Nullable private ResourceLocation group;
         private boolean hidden = false;
         private int previewPriority = 0;
@@ -371,6 +874,22 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
             return this;
         }
 
+        public Builder<T> valueEquality(@Nullable ValueEquality<T> valueEquality) {
+            this.valueEquality = valueEquality;
+            return this;
+        }
+
+        public Builder<T> valueCopier(@Nullable ValueCopier<T> valueCopier) {
+            this.valueCopier = valueCopier;
+            return this;
+        }
+
+        // each call adds the next version; values saved before it are upgraded when they're first decoded
+        public Builder<T> upgrader(NbtUpgrader upgrader) {
+            this.upgraders.add(upgrader);
+            return this;
+        }
+
         public Builder<T> nbtSwitcher(String path, NBTSerializer<T> serializer) {
             NbtSwitcher<T> switcher = new NbtSwitcher<>(path, serializer);
             this.nbtReader = switcher;
@@ -406,6 +925,9 @@ public interface SwitchyComponentType<T> extends TypeRegistry.Type {
                 this.emptyChecker,
                 this.textProvider,
                 this.nbtSerializer,
+                this.valueEquality,
+                this.valueCopier,
+                this.upgraders,
                 this.group,
                 this.hidden,
                 this.previewPriority
@@ -1,14 +1,21 @@
 package dev.sisby.switchy.data;
 
 import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.mixin.AccessorEntityPlayer;
+import dev.sisby.switchy.mixin.AccessorFoodStats;
 import dev.sisby.switchy.util.FormatUtils;
 import dev.sisby.switchy.util.NBTSerializers;
 import dev.sisby.switchy.util.TypeRegistry;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.inventory.InventoryEnderChest;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
+import net.minecraft.potion.PotionEffect;
 import net.minecraft.util.NonNullList;
 import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.TextComponentString;
@@ -16,11 +23,27 @@ import net.minecraft.util.text.TextComponentString;
 import javax.annotation.Nullable;
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>> {
     private static SwitchyComponentTypes INSTANCE = null;
     private static final SwitchyComponentTypes STATIC = new SwitchyComponentTypes();
+    // every built type by ordinal; replaced rather than mutated so readers don't need to lock
+    private static volatile SwitchyComponentType<?>[] ORDINALS = new SwitchyComponentType<?>[0];
+    private static final Map<SwitchyComponentType<?>, Integer> ORDINAL_INDEX = new IdentityHashMap<>();
+    private static int SLOTS = 0;
+
+    // built by freeze(), indexed by type ordinal
+    @Nullable
+    private ResourceLocation[] ids;
+    @Nullable
+    private String[] keys;
+    private Map<ResourceLocation, List<SwitchyComponentType<?>>> groups = Collections.emptyMap();
+    // member ordinals of each group, for checking a player's enabled components without walking the registry
+    private Map<ResourceLocation, BitSet> groupBits = Collections.emptyMap();
+    @Nullable
+    private BitSet typeBits;
 
     public static final ResourceLocation NAME_ID = new ResourceLocation(Switchy.ID, "name");
     public static final ResourceLocation DIMENSION = new ResourceLocation("minecraft", "location/dimension");
@@ -42,6 +65,7 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
     public static final ResourceLocation LEVEL = new ResourceLocation("minecraft", "xp/level");
     public static final ResourceLocation INVENTORY = new ResourceLocation("minecraft", "inventory/inventory");
     public static final ResourceLocation ENDER_CHEST = new ResourceLocation("minecraft", "inventory/ender_chest");
+    public static final ResourceLocation LOCATION_GROUP = new ResourceLocation("minecraft", "location");
 
     public static final SwitchyComponentType<String> NAME = registerStatic(NAME_ID, builder -> {
         return builder
@@ -53,84 +77,114 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
         return STATIC.registerType(id, i -> operations.apply(SwitchyComponentType.<T>builder(i)).build());
     }
 
+    public static SwitchyComponentType.IntComponentType registerStaticInt(ResourceLocation id, UnaryOperator<SwitchyComponentType.IntComponentType.Builder> operations) {
+        return STATIC.registerType(id, i -> operations.apply(SwitchyComponentType.intBuilder(i)).build());
+    }
+
+    public static SwitchyComponentType.FloatComponentType registerStaticFloat(ResourceLocation id, UnaryOperator<SwitchyComponentType.FloatComponentType.Builder> operations) {
+        return STATIC.registerType(id, i -> operations.apply(SwitchyComponentType.floatBuilder(i)).build());
+    }
+
     public static void init() {
         Switchy.LOGGER.info("Initializing Switchy component types...");
         setInstance(STATIC);
         
-        registerStatic(DIMENSION, (SwitchyComponentType.Builder<Integer> builder) -> {
+        registerStaticInt(DIMENSION, builder -> {
             return builder
-                .nbtSwitcher("Dimension", NBTSerializers.INT)
+                .nbtSwitcher("Dimension")
+                .playerReader((player, profileId) -> player.dimension)
                 .textProvider(dim -> new TextComponentString(String.valueOf(dim)))
-                .group(new ResourceLocation("minecraft", "location"))
+                .group(LOCATION_GROUP)
                 .previewPriority(10);
         });
         
         registerStatic(POS, (SwitchyComponentType.Builder<Vec3d> builder) -> {
             return builder
                 .nbtSwitcher("Pos", NBTSerializers.VEC3D)
+                .playerReader((player, profileId) -> new Vec3d(player.posX, player.posY, player.posZ))
+                // location mutators only move the player server-side; the switch sends one teleport for all of them
+                .playerMutator((pos, player) -> {
+                    if (pos != null) player.setPosition(pos.x, pos.y, pos.z);
+                })
                 .textProvider(pos -> new TextComponentString(String.format("%.1f, %.1f, %.1f", pos.x, pos.y, pos.z)))
-                .group(new ResourceLocation("minecraft", "location"))
+                .group(LOCATION_GROUP)
                 .previewPriority(9);
         });
         
-        registerStatic(YAW, (SwitchyComponentType.Builder<Float> builder) -> {
+        registerStaticFloat(YAW, builder -> {
             return builder
-                .nbtSwitcher("yaw", NBTSerializers.FLOAT)
+                .nbtSwitcher("yaw")
+                .playerReader((player, profileId) -> player.rotationYaw)
+                .playerMutator((yaw, player) -> player.rotationYaw = yaw)
                 .textProvider(yaw -> new TextComponentString(String.format("%.1f", yaw)))
-                .group(new ResourceLocation("minecraft", "location"))
+                .group(LOCATION_GROUP)
                 .hidden(true);
         });
         
-        registerStatic(PITCH, (SwitchyComponentType.Builder<Float> builder) -> {
+        registerStaticFloat(PITCH, builder -> {
             return builder
-                .nbtSwitcher("pitch", NBTSerializers.FLOAT)
+                .nbtSwitcher("pitch")
+                .playerReader((player, profileId) -> player.rotationPitch)
+                .playerMutator((pitch, player) -> player.rotationPitch = pitch)
                 .textProvider(pitch -> new TextComponentString(String.format("%.1f", pitch)))
-                .group(new ResourceLocation("minecraft", "location"))
+                .group(LOCATION_GROUP)
                 .hidden(true);
         });
         
-        registerStatic(HEALTH, (SwitchyComponentType.Builder<Float> builder) -> {
+        registerStaticFloat(HEALTH, builder -> {
             return builder
-                .nbtSwitcher("Health", NBTSerializers.FLOAT)
+                .nbtSwitcher("Health")
+                .playerReader((player, profileId) -> player.getHealth())
+                .playerMutator((health, player) -> player.setHealth(health))
                 .textProvider(FormatUtils::statText)
                 .previewPriority(8);
         });
         
-        registerStatic(FOOD, (SwitchyComponentType.Builder<Integer> builder) -> {
+        registerStaticInt(FOOD, builder -> {
             return builder
-                .nbtSwitcher("foodLevel", NBTSerializers.INT)
+                .nbtSwitcher("foodLevel")
+                .playerReader((player, profileId) -> player.getFoodStats().getFoodLevel())
+                .playerMutator((food, player) -> player.getFoodStats().setFoodLevel(food))
                 .textProvider(food -> new TextComponentString(String.valueOf(food)))
                 .group(new ResourceLocation("minecraft", "hunger"))
                 .previewPriority(7);
         });
         
-        registerStatic(SATURATION, (SwitchyComponentType.Builder<Float> builder) -> {
+        registerStaticFloat(SATURATION, builder -> {
             return builder
-                .nbtSwitcher("foodSaturationLevel", NBTSerializers.FLOAT)
+                .nbtSwitcher("foodSaturationLevel")
+                .playerReader((player, profileId) -> ((AccessorFoodStats) player.getFoodStats()).switchy$getSaturation())
+                .playerMutator((sat, player) -> ((AccessorFoodStats) player.getFoodStats()).switchy$setSaturation(sat))
                 .textProvider(sat -> new TextComponentString(String.format("%.1f", sat)))
                 .group(new ResourceLocation("minecraft", "hunger"))
                 .hidden(true);
         });
         
-        registerStatic(EXHAUSTION, (SwitchyComponentType.Builder<Float> builder) -> {
+        registerStaticFloat(EXHAUSTION, builder -> {
             return builder
-                .nbtSwitcher("foodExhaustionLevel", NBTSerializers.FLOAT)
+                .nbtSwitcher("foodExhaustionLevel")
+                .playerReader((player, profileId) -> ((AccessorFoodStats) player.getFoodStats()).switchy$getExhaustion())
+                .playerMutator((exh, player) -> ((AccessorFoodStats) player.getFoodStats()).switchy$setExhaustion(exh))
                 .textProvider(exh -> new TextComponentString(String.format("%.1f", exh)))
                 .group(new ResourceLocation("minecraft", "hunger"))
                 .hidden(true);
         });
         
-        registerStatic(XP, (SwitchyComponentType.Builder<Float> builder) -> {
+        registerStaticFloat(XP, builder -> {
             return builder
-                .nbtSwitcher("XpP", NBTSerializers.FLOAT)
+                .nbtSwitcher("XpP")
+                .playerReader((player, profileId) -> player.experience)
+                .playerMutator((xp, player) -> player.experience = xp)
                 .textProvider(xp -> new TextComponentString(String.format("%.1f%%", xp * 100)))
                 .group(new ResourceLocation("minecraft", "xp"))
                 .previewPriority(5);
         });
         
-        registerStatic(LEVEL, (SwitchyComponentType.Builder<Integer> builder) -> {
+        registerStaticInt(LEVEL, builder -> {
             return builder
-                .nbtSwitcher("XpLevel", NBTSerializers.INT)
+                .nbtSwitcher("XpLevel")
+                .playerReader((player, profileId) -> player.experienceLevel)
+                .playerMutator((lvl, player) -> player.experienceLevel = lvl)
                 .textProvider(lvl -> new TextComponentString("Level " + lvl))
                 .group(new ResourceLocation("minecraft", "xp"))
                 .previewPriority(6);
@@ -139,8 +193,20 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
         registerStatic(INVENTORY, (SwitchyComponentType.Builder<NonNullList<ItemStack>> builder) -> {
             return builder
                 .nbtSwitcher("Inventory", NBTSerializers.INVENTORY)
+                .playerReader((player, profileId) -> copyInventory(player.inventory.mainInventory))
+                .playerMutator((inv, player) -> {
+                    // mirrors InventoryPlayer#readFromNBT, which starts from a cleared inventory
+                    player.inventory.clear();
+                    if (inv != null) {
+                        for (int i = 0; i < player.inventory.mainInventory.size() && i < inv.size(); i++) {
+                            player.inventory.mainInventory.set(i, inv.get(i).copy());
+                        }
+                    }
+                })
                 .textProvider(FormatUtils::inventoryText)
                 .emptyChecker(inv -> inv.stream().allMatch(ItemStack::isEmpty))
+                .valueEquality(SwitchyComponentTypes::inventoriesEqual)
+                .valueCopier(SwitchyComponentTypes::copyInventory)
                 .group(new ResourceLocation("minecraft", "inventory"))
                 .previewPriority(10);
         });
@@ -148,8 +214,27 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
         registerStatic(ENDER_CHEST, (SwitchyComponentType.Builder<NonNullList<ItemStack>> builder) -> {
             return builder
                 .nbtSwitcher("EnderItems", NBTSerializers.INVENTORY)
+                .playerReader((player, profileId) -> {
+                    InventoryEnderChest enderChest = player.getInventoryEnderChest();
+                    NonNullList<ItemStack> inventory = NonNullList.withSize(54, ItemStack.EMPTY);
+                    for (int i = 0; i < enderChest.getSizeInventory() && i < inventory.size(); i++) {
+                        inventory.set(i, enderChest.getStackInSlot(i).copy());
+                    }
+                    return inventory;
+                })
+                .playerMutator((inv, player) -> {
+                    InventoryEnderChest enderChest = player.getInventoryEnderChest();
+                    enderChest.clear();
+                    if (inv != null) {
+                        for (int i = 0; i < enderChest.getSizeInventory() && i < inv.size(); i++) {
+                            enderChest.setInventorySlotContents(i, inv.get(i).copy());
+                        }
+                    }
+                })
                 .textProvider(FormatUtils::inventoryText)
                 .emptyChecker(inv -> inv.stream().allMatch(ItemStack::isEmpty))
+                .valueEquality(SwitchyComponentTypes::inventoriesEqual)
+                .valueCopier(SwitchyComponentTypes::copyInventory)
                 .group(new ResourceLocation("minecraft", "inventory"))
                 .previewPriority(9);
         });
@@ -157,6 +242,14 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
         registerStatic(EFFECTS, (SwitchyComponentType.Builder<NBTBase> builder) -> {
             return builder
                 .nbtSwitcher("ActiveEffects", NBTSerializers.NBT)
+                .playerReader((player, profileId) -> {
+                    if (player.getActivePotionEffects().isEmpty()) return null;
+                    NBTTagList effects = new NBTTagList();
+                    for (PotionEffect effect : player.getActivePotionEffects()) {
+                        effects.appendTag(effect.writeCustomPotionEffectToNBT(new NBTTagCompound()));
+                    }
+                    return effects;
+                })
                 .textProvider(nbt -> {
                     if (nbt instanceof NBTTagList) {
                         NBTTagList list = (NBTTagList) nbt;
@@ -170,36 +263,49 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
                     }
                     return FormatUtils.isEmpty(nbt);
                 })
+                .valueEquality(NBTBase::equals)
+                .valueCopier(NBTBase::copy)
                 .previewPriority(4);
         });
         
-        registerStatic(SPAWN_X, (SwitchyComponentType.Builder<Integer> builder) -> {
+        registerStaticInt(SPAWN_X, builder -> {
             return builder
-                .nbtSwitcher("SpawnX", NBTSerializers.INT)
+                .nbtSwitcher("SpawnX")
+                .playerReader((player, profileId) -> spawnPos(player).getX())
+                .absentIf(player -> spawnPos(player) == null)
+                .playerMutator((x, player) -> mutateSpawn(player, pos -> new BlockPos(x, pos.getY(), pos.getZ())))
                 .textProvider(x -> new TextComponentString(String.valueOf(x)))
                 .group(new ResourceLocation("minecraft", "spawn"))
                 .previewPriority(3);
         });
         
-        registerStatic(SPAWN_Y, (SwitchyComponentType.Builder<Integer> builder) -> {
+        registerStaticInt(SPAWN_Y, builder -> {
             return builder
-                .nbtSwitcher("SpawnY", NBTSerializers.INT)
+                .nbtSwitcher("SpawnY")
+                .playerReader((player, profileId) -> spawnPos(player).getY())
+                .absentIf(player -> spawnPos(player) == null)
+                .playerMutator((y, player) -> mutateSpawn(player, pos -> new BlockPos(pos.getX(), y, pos.getZ())))
                 .textProvider(y -> new TextComponentString(String.valueOf(y)))
                 .group(new ResourceLocation("minecraft", "spawn"))
                 .hidden(true);
         });
         
-        registerStatic(SPAWN_Z, (SwitchyComponentType.Builder<Integer> builder) -> {
+        registerStaticInt(SPAWN_Z, builder -> {
             return builder
-                .nbtSwitcher("SpawnZ", NBTSerializers.INT)
+                .nbtSwitcher("SpawnZ")
+                .playerReader((player, profileId) -> spawnPos(player).getZ())
+                .absentIf(player -> spawnPos(player) == null)
+                .playerMutator((z, player) -> mutateSpawn(player, pos -> new BlockPos(pos.getX(), pos.getY(), z)))
                 .textProvider(z -> new TextComponentString(String.valueOf(z)))
                 .group(new ResourceLocation("minecraft", "spawn"))
                 .hidden(true);
         });
         
-        registerStatic(SPAWN_DIMENSION, (SwitchyComponentType.Builder<Integer> builder) -> {
+        registerStaticInt(SPAWN_DIMENSION, builder -> {
             return builder
-                .nbtSwitcher("SpawnDimension", NBTSerializers.INT)
+                .nbtSwitcher("SpawnDimension")
+                .playerReader((player, profileId) -> player.getSpawnDimension())
+                .playerMutator((dim, player) -> player.setSpawnDimension(dim))
                 .textProvider(dim -> new TextComponentString("Dim " + dim))
                 .group(new ResourceLocation("minecraft", "spawn"))
                 .previewPriority(2);
@@ -208,6 +314,10 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
         registerStatic(SPAWN_FORCED, (SwitchyComponentType.Builder<Boolean> builder) -> {
             return builder
                 .nbtSwitcher("SpawnForced", NBTSerializers.BOOLEAN)
+                .playerReader((player, profileId) -> ((AccessorEntityPlayer) player).switchy$getSpawnPos() != null ? ((AccessorEntityPlayer) player).switchy$isSpawnForced() : null)
+                .playerMutator((forced, player) -> {
+                    if (forced != null) ((AccessorEntityPlayer) player).switchy$setSpawnForced(forced);
+                })
                 .textProvider(forced -> new TextComponentString(forced ? "Forced" : "Not Forced"))
                 .group(new ResourceLocation("minecraft", "spawn"))
                 .hidden(true);
@@ -216,6 +326,10 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
         registerStatic(SPAWN_ANGLE, (SwitchyComponentType.Builder<Float> builder) -> {
             return builder
                 .nbtSwitcher("SpawnAngle", NBTSerializers.FLOAT)
+                // 1.12 players have no spawn angle, so there's never anything to read or apply
+                .playerReader((player, profileId) -> null)
+                .playerMutator((angle, player) -> {
+                })
                 .textProvider(angle -> new TextComponentString(String.format("%.1f°", angle)))
                 .group(new ResourceLocation("minecraft", "spawn"))
                 .hidden(true);
@@ -224,6 +338,165 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
         Switchy.LOGGER.info("Registered {} component types", STATIC.values().size());
     }
 
+    private static NonNullList<ItemStack> copyInventory(NonNullList<ItemStack> source) {
+        NonNullList<ItemStack> inventory = NonNullList.withSize(54, ItemStack.EMPTY);
+        for (int i = 0; i < source.size() && i < inventory.size(); i++) {
+            inventory.set(i, source.get(i).copy());
+        }
+        return inventory;
+    }
+
+    private static boolean inventoriesEqual(NonNullList<ItemStack> a, NonNullList<ItemStack> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!ItemStack.areItemStacksEqual(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private static BlockPos spawnPos(EntityPlayerMP player) {
+        return ((AccessorEntityPlayer) player).switchy$getSpawnPos();
+    }
+
+    private static void mutateSpawn(EntityPlayerMP player, UnaryOperator<BlockPos> operator) {
+        AccessorEntityPlayer accessor = (AccessorEntityPlayer) player;
+        BlockPos spawnPos = accessor.switchy$getSpawnPos();
+        accessor.switchy$setSpawnPos(operator.apply(spawnPos != null ? spawnPos : BlockPos.ORIGIN));
+    }
+
+    // only types that got past the freeze and duplicate checks take an ordinal, so rejected ones leave no gaps
+    @Override
+    public <B extends SwitchyComponentType<?>> B registerType(ResourceLocation id, Function<ResourceLocation, B> typeSupplier) {
+        B type = super.registerType(id, typeSupplier);
+        assignOrdinal(type);
+        return type;
+    }
+
+    private static synchronized void assignOrdinal(SwitchyComponentType<?> type) {
+        // already registered in another registry
+        if (ORDINAL_INDEX.containsKey(type)) return;
+        SwitchyComponentType<?>[] ordinals = Arrays.copyOf(ORDINALS, ORDINALS.length + 1);
+        int ordinal = ordinals.length - 1;
+        ordinals[ordinal] = type;
+        ORDINAL_INDEX.put(type, ordinal);
+        if (type instanceof SwitchyComponentType.SimpleSwitchyComponentType) {
+            ((SwitchyComponentType.SimpleSwitchyComponentType<?>) type).setOrdinal(ordinal);
+        }
+        if (type instanceof SwitchyComponentType.PrimitiveComponentType) {
+            ((SwitchyComponentType.PrimitiveComponentType<?>) type).setSlot(SLOTS++);
+        }
+        ORDINALS = ordinals;
+    }
+
+    static synchronized int ordinalOf(SwitchyComponentType<?> type) {
+        Integer ordinal = ORDINAL_INDEX.get(type);
+        if (ordinal == null) {
+            throw new IllegalStateException(String.format("Component type %s isn't registered", type.id()));
+        }
+        return ordinal;
+    }
+
+    static synchronized int slotCount() {
+        return SLOTS;
+    }
+
+    static SwitchyComponentType<?> byOrdinal(int ordinal) {
+        return ORDINALS[ordinal];
+    }
+
+    static int ordinalCount() {
+        return ORDINALS.length;
+    }
+
+    // called once every mod has had the chance to register components; lookups are read-only from then on
+    @Override
+    public void freeze() {
+        if (isFrozen()) return;
+        super.freeze();
+        ResourceLocation[] ids = new ResourceLocation[ordinalCount()];
+        String[] keys = new String[ids.length];
+        Map<ResourceLocation, List<SwitchyComponentType<?>>> groups = new HashMap<>();
+        for (SwitchyComponentType<?> type : values()) {
+            ResourceLocation id = super.id(type);
+            ids[type.ordinal()] = id;
+            keys[type.ordinal()] = id.toString();
+            if (type.group() != null) groups.computeIfAbsent(type.group(), k -> new ArrayList<>()).add(type);
+        }
+        this.ids = ids;
+        this.keys = keys;
+        this.groups = Collections.unmodifiableMap(groups.entrySet().stream()
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> Collections.unmodifiableList(e.getValue()), (a, b) -> a, LinkedHashMap::new)));
+        this.groupBits = groups.entrySet().stream()
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> ordinals(e.getValue())));
+        this.typeBits = ordinals(values());
+        Switchy.LOGGER.info("Froze {} component types in {} groups", values().size(), groups.size());
+    }
+
+    @Nullable
+    @Override
+    public ResourceLocation id(SwitchyComponentType<?> type) {
+        ResourceLocation[] ids = this.ids;
+        if (ids == null) return super.id(type);
+        return type.ordinal() < ids.length ? ids[type.ordinal()] : null;
+    }
+
+    // the id as it's saved in NBT
+    @Nullable
+    public String key(SwitchyComponentType<?> type) {
+        String[] keys = this.keys;
+        if (keys == null) {
+            ResourceLocation id = super.id(type);
+            return id != null ? id.toString() : null;
+        }
+        return type.ordinal() < keys.length ? keys[type.ordinal()] : null;
+    }
+
+    @Nullable
+    public String key(int ordinal) {
+        String[] keys = this.keys;
+        if (keys == null) {
+            return ordinal < ordinalCount() ? key(byOrdinal(ordinal)) : null;
+        }
+        return ordinal < keys.length ? keys[ordinal] : null;
+    }
+
+    public Set<ResourceLocation> groups() {
+        if (!isFrozen()) {
+            return values().stream().map(SwitchyComponentType::group).filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+        }
+        return groups.keySet();
+    }
+
+    // every registered type in the group, empty for an unknown group
+    public List<SwitchyComponentType<?>> members(ResourceLocation group) {
+        if (!isFrozen()) {
+            return values().stream().filter(t -> group.equals(t.group())).collect(Collectors.toList());
+        }
+        return groups.getOrDefault(group, Collections.emptyList());
+    }
+
+    // shared, so callers mustn't modify it
+    BitSet memberBits(ResourceLocation group) {
+        if (!isFrozen()) return ordinals(members(group));
+        BitSet bits = groupBits.get(group);
+        return bits != null ? bits : new BitSet();
+    }
+
+    // ordinals of every type in this registry; shared, so callers mustn't modify it
+    BitSet typeBits() {
+        BitSet bits = typeBits;
+        return bits != null ? bits : ordinals(values());
+    }
+
+    private static BitSet ordinals(Collection<SwitchyComponentType<?>> types) {
+        BitSet bits = new BitSet();
+        for (SwitchyComponentType<?> type : types) {
+            bits.set(type.ordinal());
+        }
+        return bits;
+    }
+
     public static void setInstance(SwitchyComponentTypes types) {
         INSTANCE = types;
     }
@@ -232,6 +505,14 @@ public class SwitchyComponentTypes extends TypeRegistry<SwitchyComponentType<?>>
         return registerType(id, i -> operations.apply(SwitchyComponentType.<T>builder(i)).build());
     }
 
+    public SwitchyComponentType.IntComponentType registerIntComponent(ResourceLocation id, UnaryOperator<SwitchyComponentType.IntComponentType.Builder> operations) {
+        return registerType(id, i -> operations.apply(SwitchyComponentType.intBuilder(i)).build());
+    }
+
+    public SwitchyComponentType.FloatComponentType registerFloatComponent(ResourceLocation id, UnaryOperator<SwitchyComponentType.FloatComponentType.Builder> operations) {
+        return registerType(id, i -> operations.apply(SwitchyComponentType.floatBuilder(i)).build());
+    }
+
     @Nullable
     public static SwitchyComponentTypes instance() {
         return INSTANCE;
@@ -0,0 +1,217 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// One player's item stacks that carry NBT, stored once by content hash. Saved profiles reference them by hash,
+// each component map keeps the hashes it holds, and entries nothing references are dropped on compaction.
+public class SwitchyItemPool {
+    private static final String REF = "ref";
+
+    private final Map<String, Entry> items = new HashMap<>();
+    private final Map<SwitchyComponentMap, Pooled> pooled = new IdentityHashMap<>();
+
+    public static SwitchyItemPool fromNBT(NBTTagCompound nbt) {
+        SwitchyItemPool pool = new SwitchyItemPool();
+        for (String hash : nbt.getKeySet()) {
+            pool.items.put(hash, new Entry(nbt.getCompoundTag(hash)));
+        }
+        return pool;
+    }
+
+    public NBTTagCompound toNBT() {
+        NBTTagCompound nbt = new NBTTagCompound();
+        for (Map.Entry<String, Entry> entry : items.entrySet()) {
+            nbt.setTag(entry.getKey(), entry.getValue().item);
+        }
+        return nbt;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    // the saved form of a map that hasn't changed since it was last pooled
+    @Nullable
+    public NBTTagCompound cached(SwitchyComponentMap components) {
+        Pooled entry = pooled.get(components);
+        return entry != null && entry.revision == components.revision() ? entry.refs : null;
+    }
+
+    public NBTTagCompound pool(SwitchyComponentMap components, NBTTagCompound nbt) {
+        List<String> hashes = new ArrayList<>();
+        NBTTagCompound refs = new NBTTagCompound();
+        for (String key : nbt.getKeySet()) {
+            NBTBase tag = nbt.getTag(key);
+            refs.setTag(key, isItemList(tag) ? poolList((NBTTagList) tag, hashes) : tag);
+        }
+        adopt(components, refs, hashes);
+        return refs;
+    }
+
+    // expands a saved components compound, collecting the hashes it references; pooled items are shared rather than copied
+    public NBTTagCompound expand(NBTTagCompound refs, List<String> hashes) {
+        NBTTagCompound nbt = new NBTTagCompound();
+        for (String key : refs.getKeySet()) {
+            NBTBase tag = refs.getTag(key);
+            nbt.setTag(key, tag instanceof NBTTagList ? expandList((NBTTagList) tag, hashes) : tag);
+        }
+        return nbt;
+    }
+
+    public void retain(Set<SwitchyComponentMap> live) {
+        Iterator<Map.Entry<SwitchyComponentMap, Pooled>> iterator = pooled.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<SwitchyComponentMap, Pooled> entry = iterator.next();
+            if (!live.contains(entry.getKey())) {
+                release(entry.getValue().hashes);
+                iterator.remove();
+            }
+        }
+    }
+
+    public int compact() {
+        int removed = 0;
+        Iterator<Entry> iterator = items.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().refs <= 0) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    void adopt(SwitchyComponentMap components, NBTTagCompound refs, List<String> hashes) {
+        Pooled previous = pooled.put(components, new Pooled(components.revision(), refs, hashes));
+        for (String hash : hashes) {
+            items.get(hash).refs++;
+        }
+        if (previous != null) release(previous.hashes);
+    }
+
+    private void release(List<String> hashes) {
+        for (String hash : hashes) {
+            Entry entry = items.get(hash);
+            if (entry != null) entry.refs--;
+        }
+    }
+
+    private NBTTagList poolList(NBTTagList list, List<String> hashes) {
+        NBTTagList refs = new NBTTagList();
+        for (int i = 0; i < list.tagCount(); i++) {
+            NBTTagCompound stack = list.getCompoundTagAt(i);
+            // plain stacks are smaller inline than as a reference
+            if (!stack.hasKey("tag", 10)) {
+                refs.appendTag(stack);
+                continue;
+            }
+            NBTTagCompound item = new NBTTagCompound();
+            NBTTagCompound ref = new NBTTagCompound();
+            for (String key : stack.getKeySet()) {
+                (key.equals("Slot") ? ref : item).setTag(key, stack.getTag(key));
+            }
+            String hash = hash(item);
+            items.putIfAbsent(hash, new Entry(item));
+            hashes.add(hash);
+            ref.setString(REF, hash);
+            refs.appendTag(ref);
+        }
+        return refs;
+    }
+
+    private NBTBase expandList(NBTTagList refs, List<String> hashes) {
+        if (refs.tagCount() == 0 || refs.getTagType() != 10) return refs;
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < refs.tagCount(); i++) {
+            NBTTagCompound ref = refs.getCompoundTagAt(i);
+            if (!ref.hasKey(REF, 8) || ref.hasKey("id")) {
+                list.appendTag(ref);
+                continue;
+            }
+            String hash = ref.getString(REF);
+            Entry entry = items.get(hash);
+            if (entry == null) {
+                Switchy.LOGGER.error("[Switchy] Dropping reference to missing pooled item {}", hash);
+                continue;
+            }
+            NBTTagCompound stack = new NBTTagCompound();
+            for (String key : entry.item.getKeySet()) {
+                stack.setTag(key, entry.item.getTag(key));
+            }
+            for (String key : ref.getKeySet()) {
+                if (!key.equals(REF)) stack.setTag(key, ref.getTag(key));
+            }
+            hashes.add(hash);
+            list.appendTag(stack);
+        }
+        return list;
+    }
+
+    private static boolean isItemList(NBTBase tag) {
+        if (!(tag instanceof NBTTagList)) return false;
+        NBTTagList list = (NBTTagList) tag;
+        if (list.tagCount() == 0 || list.getTagType() != 10) return false;
+        for (int i = 0; i < list.tagCount(); i++) {
+            NBTTagCompound stack = list.getCompoundTagAt(i);
+            if (!stack.hasKey("id", 8) || !stack.hasKey("Count")) return false;
+        }
+        return true;
+    }
+
+    static String hash(NBTTagCompound item) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CompressedStreamTools.write(item, new DataOutputStream(bytes));
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes.toByteArray());
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final NBTTagCompound item;
+        private int refs;
+
+        private Entry(NBTTagCompound item) {
+            this.item = item;
+        }
+    }
+
+    private static class Pooled {
+        private final long revision;
+        private final NBTTagCompound refs;
+        private final List<String> hashes;
+
+        private Pooled(long revision, NBTTagCompound refs, List<String> hashes) {
+            this.revision = revision;
+            this.refs = refs;
+            this.hashes = hashes;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.SwitchyConfig;
+import dev.sisby.switchy.exception.ProfilePreciousException;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+// Append-only log of profile mutations made since the last checkpoint. A checkpoint happens once every
+// player's data has been saved and the writer has stored it, and truncates the log down to records nobody has
+// replayed yet plus those appended since the save.
+// Records carry increasing sequence numbers; saved player data remembers the last one it reflects.
+public class SwitchyJournal {
+    public static final String FILE = "journal.bin";
+    private static final int HEADER = 25;
+
+    // written first after every truncation, so sequence numbers keep increasing across checkpoints and restarts
+    private static final int SEQUENCE = 0;
+    private static final int SWITCH = 1;
+    private static final int RENAME = 2;
+    private static final int DELETE = 3;
+    private static final int ENABLE = 4;
+    private static final int DISABLE = 5;
+
+    // records left over from before the last shutdown or crash, waiting for their player to load
+    private final Map<UUID, List<byte[]>> pending = new LinkedHashMap<>();
+    // records appended this session, until a checkpoint covers them
+    private final List<byte[]> recent = new ArrayList<>();
+    @Nullable
+    private FileOutputStream out;
+    @Nullable
+    private FileChannel channel;
+    private long nextSequence = 1;
+    @Nullable
+    private ExecutorService syncer;
+    private boolean syncQueued;
+
+    public synchronized void open(File directory) {
+        close();
+        pending.clear();
+        recent.clear();
+        if (!SwitchyConfig.journal) return;
+        File file = new File(directory, FILE);
+        try {
+            if (file.isFile()) {
+                int records = read(file);
+                if (records > 0) {
+                    Switchy.LOGGER.warn("[Switchy] Found {} un-checkpointed journal records for {} players, they'll be replayed as those players load", records, pending.size());
+                }
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Couldn't create " + directory);
+            }
+            out = new FileOutputStream(file, true);
+            channel = out.getChannel();
+            // drop anything after the last intact record so new records aren't appended behind it
+            rewrite();
+            channel.force(false);
+        } catch (IOException e) {
+            Switchy.LOGGER.error("[Switchy] Failed to open profile journal {}, profile changes won't be journaled", file, e);
+            close();
+        }
+    }
+
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                channel.force(false);
+                out.close();
+            } catch (IOException e) {
+                Switchy.LOGGER.warn("[Switchy] Failed to close profile journal", e);
+            }
+        }
+        out = null;
+        channel = null;
+        if (syncer != null) {
+            syncer.shutdown();
+            syncer = null;
+        }
+        syncQueued = false;
+    }
+
+    // only the outgoing profile's components captured since its last switch record are logged, as keys plus their
+    // values; a key without a value was cleared
+    public void recordSwitch(EntityPlayerMP player, String from, String to, Collection<String> changedKeys, NBTTagCompound changed) {
+        recordSwitch(player.getUniqueID(), SwitchyPlayerData.ofEarly(player), from, to, changedKeys, changed);
+    }
+
+    void recordSwitch(UUID uuid, @Nullable SwitchyPlayerData playerData, String from, String to, Collection<String> changedKeys, NBTTagCompound changed) {
+        byte[] components = SwitchyCompactCodec.encodeComponents(changed);
+        append(SWITCH, uuid, playerData, data -> {
+            data.writeUTF(from);
+            data.writeUTF(to);
+            data.writeInt(changedKeys.size());
+            for (String key : changedKeys) {
+                data.writeUTF(key);
+            }
+            data.writeInt(components.length);
+            data.write(components);
+        });
+    }
+
+    public void recordRename(EntityPlayerMP player, String oldId, String newId) {
+        recordRename(player.getUniqueID(), SwitchyPlayerData.ofEarly(player), oldId, newId);
+    }
+
+    void recordRename(UUID uuid, @Nullable SwitchyPlayerData playerData, String oldId, String newId) {
+        append(RENAME, uuid, playerData, data -> {
+            data.writeUTF(oldId);
+            data.writeUTF(newId);
+        });
+    }
+
+    public void recordDelete(EntityPlayerMP player, String profileId) {
+        recordDelete(player.getUniqueID(), SwitchyPlayerData.ofEarly(player), profileId);
+    }
+
+    void recordDelete(UUID uuid, @Nullable SwitchyPlayerData playerData, String profileId) {
+        append(DELETE, uuid, playerData, data -> data.writeUTF(profileId));
+    }
+
+    public void recordComponents(EntityPlayerMP player, boolean enable, Collection<SwitchyComponentType<?>> types) {
+        append(enable ? ENABLE : DISABLE, player.getUniqueID(), SwitchyPlayerData.ofEarly(player), data -> {
+            data.writeInt(types.size());
+            for (SwitchyComponentType<?> type : types) {
+                data.writeUTF(type.id().toString());
+            }
+        });
+    }
+
+    // called while a player's data is first loaded. the data reflects every record up to its own sequence, so only
+    // newer ones - changes made after its last save and lost with the server - are applied, and replaying twice changes nothing
+    public void replay(EntityPlayerMP player, SwitchyPlayerData playerData, NBTTagCompound playerNbt) {
+        replay(player.getUniqueID(), player.getGameProfile().getName(), player, playerData, playerNbt);
+    }
+
+    // without a player, records that need one (switches that created their profile, enables) are skipped
+    void replay(UUID uuid, String name, @Nullable EntityPlayerMP player, SwitchyPlayerData playerData, NBTTagCompound playerNbt) {
+        List<byte[]> records;
+        synchronized (this) {
+            records = pending.remove(uuid);
+            // a journal that was deleted by hand must not hand out numbers the player's data has already seen
+            nextSequence = Math.max(nextSequence, playerData.journalSequence() + 1);
+        }
+        if (records == null) return;
+
+        int applied = 0;
+        for (byte[] record : records) {
+            long sequence = sequence(record);
+            if (sequence <= playerData.journalSequence()) continue;
+            try {
+                if (apply(record, player, playerData, playerNbt)) applied++;
+                playerData.setJournalSequence(sequence);
+            } catch (ProfilePreciousException e) {
+                Switchy.LOGGER.warn("[Switchy] Not replaying journaled delete for {}: {}", name, e.getMessage());
+            } catch (Exception e) {
+                Switchy.LOGGER.warn("[Switchy] Skipping unreadable journal record for {}", name, e);
+            }
+        }
+        Switchy.LOGGER.info("[Switchy] Replayed {} of {} journal records for {}", applied, records.size(), name);
+    }
+
+    // for a player whose file turned out to hold no switchy data, so nothing could ever replay their records
+    public synchronized void discard(UUID uuid) {
+        List<byte[]> records = pending.remove(uuid);
+        if (records != null) {
+            Switchy.LOGGER.info("[Switchy] Discarded {} journal records for {}, whose player file has no profiles", records.size(), uuid);
+        }
+    }
+
+    private boolean apply(byte[] record, @Nullable EntityPlayerMP player, SwitchyPlayerData playerData, NBTTagCompound playerNbt) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+        int type = data.readUnsignedByte();
+        data.skipBytes(HEADER - 1);
+        switch (type) {
+            case SWITCH: {
+                String from = data.readUTF();
+                String to = data.readUTF();
+                List<String> changedKeys = new ArrayList<>();
+                int count = data.readInt();
+                for (int i = 0; i < count; i++) {
+                    changedKeys.add(data.readUTF());
+                }
+                byte[] components = new byte[data.readInt()];
+                data.readFully(components);
+                if (!playerData.current().equals(from)) return false;
+                // a switch that created its profile can't be replayed without the player to initialize it from
+                if (player == null && !playerData.profileExists(to)) return false;
+                playerData.patchComponents(from, changedKeys, SwitchyCompactCodec.decodeComponents(components));
+                playerData.forceCurrent(to, player);
+                return true;
+            }
+            case RENAME: {
+                String oldId = data.readUTF();
+                String newId = data.readUTF();
+                if (!playerData.profileExists(oldId) || playerData.profileExists(newId)) return false;
+                playerData.renameProfile(oldId, newId);
+                return true;
+            }
+            case DELETE: {
+                String profileId = data.readUTF();
+                if (!playerData.profileExists(profileId) || playerData.current().equals(profileId)) return false;
+                playerData.deleteProfile(profileId);
+                return true;
+            }
+            case ENABLE:
+            case DISABLE: {
+                Set<SwitchyComponentType<?>> types = new LinkedHashSet<>();
+                int count = data.readInt();
+                for (int i = 0; i < count; i++) {
+                    SwitchyComponentType<?> componentType = SwitchyComponentTypes.instance().get(data.readUTF());
+                    if (componentType != null && playerData.isEnabled(componentType) != (type == ENABLE)) {
+                        types.add(componentType);
+                    }
+                }
+                if (types.isEmpty()) return false;
+                if (type == ENABLE) {
+                    if (player == null) return false;
+                    for (SwitchyComponentType<?> componentType : types) {
+                        playerData.initComponent(componentType, player, playerNbt);
+                    }
+                    return true;
+                }
+                return playerData.removeComponents(types) > 0;
+            }
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldSave(WorldEvent.Save event) {
+        // the overworld saves after every online player was written, and offline players were written on logout
+        if (!event.getWorld().isRemote && event.getWorld().provider.getDimension() == 0) {
+            checkpoint();
+        }
+    }
+
+    // the save has already queued every player's profile store, so records up to now are covered once the writer
+    // gets past them; the truncation runs there instead of blocking the server thread on a flush
+    public void checkpoint() {
+        long sequence;
+        synchronized (this) {
+            if (channel == null) return;
+            sequence = nextSequence - 1;
+        }
+        long failures = SwitchyProfileStore.failures();
+        SwitchyProfileStore.afterWrites(() -> {
+            if (SwitchyProfileStore.failures() != failures) {
+                Switchy.LOGGER.warn("[Switchy] Skipping profile journal checkpoint because a profile store failed to write");
+                return;
+            }
+            truncate(sequence);
+        });
+    }
+
+    private void truncate(long sequence) {
+        FileChannel channel;
+        synchronized (this) {
+            channel = this.channel;
+            if (channel == null) return;
+            recent.removeIf(record -> sequence(record) <= sequence);
+            try {
+                rewrite();
+            } catch (IOException e) {
+                Switchy.LOGGER.error("[Switchy] Failed to checkpoint profile journal", e);
+                return;
+            }
+        }
+        sync(channel);
+    }
+
+    private void rewrite() throws IOException {
+        channel.truncate(0);
+        writeFrame(record(SEQUENCE, new UUID(0, 0), nextSequence - 1, data -> {}));
+        for (List<byte[]> records : pending.values()) {
+            for (byte[] record : records) {
+                writeFrame(record);
+            }
+        }
+        for (byte[] record : recent) {
+            writeFrame(record);
+        }
+    }
+
+    private static long sequence(byte[] record) {
+        return ByteBuffer.wrap(record, 17, 8).getLong();
+    }
+
+    private synchronized void append(int type, UUID uuid, @Nullable SwitchyPlayerData playerData, RecordWriter writer) {
+        if (channel == null) return;
+        long sequence = nextSequence++;
+        try {
+            byte[] record = record(type, uuid, sequence, writer);
+            writeFrame(record);
+            recent.add(record);
+        } catch (IOException e) {
+            Switchy.LOGGER.error("[Switchy] Failed to append to profile journal", e);
+            return;
+        }
+        if (playerData != null) playerData.setJournalSequence(sequence);
+        requestSync();
+    }
+
+    private static byte[] record(int type, UUID uuid, long sequence, RecordWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(type);
+        data.writeLong(uuid.getMostSignificantBits());
+        data.writeLong(uuid.getLeastSignificantBits());
+        data.writeLong(sequence);
+        writer.write(data);
+        data.flush();
+        return bytes.toByteArray();
+    }
+
+    // appends only reach the page cache; one fsync on the journal thread covers every record written before it runs
+    private void requestSync() {
+        if (syncQueued) return;
+        syncQueued = true;
+        if (syncer == null) {
+            syncer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Switchy Journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        syncer.execute(this::sync);
+    }
+
+    private void sync() {
+        FileChannel channel;
+        synchronized (this) {
+            syncQueued = false;
+            channel = this.channel;
+        }
+        if (channel != null) sync(channel);
+    }
+
+    private static void sync(FileChannel channel) {
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // closed by a shutdown, which syncs on its own
+        } catch (IOException e) {
+            Switchy.LOGGER.error("[Switchy] Failed to sync profile journal", e);
+        }
+    }
+
+    private void writeFrame(byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer frame = ByteBuffer.allocate(8 + record.length);
+        frame.putInt(record.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(record);
+        frame.flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    private int read(File file) throws IOException {
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int checksum = in.readInt();
+                if (length < HEADER) throw new IOException("Bad journal record length " + length);
+                byte[] record = new byte[length];
+                in.readFully(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) throw new IOException("Journal record checksum mismatch");
+                ByteBuffer header = ByteBuffer.wrap(record, 1, HEADER - 1);
+                UUID uuid = new UUID(header.getLong(), header.getLong());
+                nextSequence = Math.max(nextSequence, header.getLong() + 1);
+                if (record[0] == SEQUENCE) continue;
+                pending.computeIfAbsent(uuid, k -> new ArrayList<>()).add(record);
+                records++;
+            }
+        } catch (IOException e) {
+            // a torn final write from a crash; everything before it is intact
+            Switchy.LOGGER.warn("[Switchy] Profile journal {} ends in a damaged record after {} good ones: {}", file, records, e.getMessage());
+        }
+        return records;
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream data) throws IOException;
+    }
+}
@@ -0,0 +1,209 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ResourceLocation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+// Recovers legacy switchy:presets data from every player file in the world, rather than waiting for each player to log in.
+// Files are split across a fork-join pool and each worker holds one player file at a time, so memory stays bounded by the pool size.
+public class SwitchyLegacyMigration {
+    private static final int BATCH = 16;
+    private static volatile boolean running;
+
+    public static boolean isRunning() {
+        return running;
+    }
+
+    public static boolean start(MinecraftServer server, Consumer<String> progress, Consumer<Result> done) {
+        if (running) return false;
+        running = true;
+        File worldDirectory = server.getWorld(0).getSaveHandler().getWorldDirectory();
+        File playerDataDir = new File(worldDirectory, "playerdata");
+        File[] files = playerDataDir.listFiles((dir, name) -> name.endsWith(".dat"));
+        // online players are migrated by their own login, and their files are about to be overwritten anyway
+        Set<UUID> online = server.getPlayerList().getPlayers().stream().map(EntityPlayerMP::getUniqueID).collect(Collectors.toSet());
+        NBTTagCompound defaultNbt = SwitchyPlayerData.createDefaultPlayerNbt(20.0F, server.getWorld(0).getSpawnPoint(), 0);
+        Context context = new Context(server, playerDataDir, SwitchyProfileStore.directory(worldDirectory), online, defaultNbt, files != null ? files.length : 0, progress);
+
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+            try {
+                if (files != null) pool.invoke(new MigrateTask(context, files, 0, files.length));
+            } catch (RuntimeException e) {
+                Switchy.LOGGER.error("[Switchy] Legacy migration stopped early", e);
+            } finally {
+                pool.shutdown();
+            }
+            context.result.nanos = System.nanoTime() - start;
+            Switchy.LOGGER.info("[Switchy] Legacy migration finished: {} migrated, {} failed, skipped components {}", context.result.migrated(), context.result.failed(), context.result.skippedComponents());
+            server.addScheduledTask(() -> {
+                running = false;
+                if (context.result.migrated() > 0) Switchy.INDEX.rebuild(server, null);
+                done.accept(context.result);
+            });
+        }, "Switchy Legacy Migration");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private static void migrate(Context context, File file) {
+        Result result = context.result;
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - 4));
+        } catch (IllegalArgumentException e) {
+            result.unchanged.incrementAndGet();
+            return;
+        }
+        if (context.online.contains(uuid)) {
+            result.online.incrementAndGet();
+            return;
+        }
+        try {
+            NBTTagCompound nbt;
+            try (InputStream in = new FileInputStream(file)) {
+                nbt = CompressedStreamTools.readCompressed(in);
+            }
+            if (!nbt.hasKey("switchy:presets", 10) || nbt.hasKey(Switchy.ID, 10)) {
+                result.unchanged.incrementAndGet();
+                return;
+            }
+            SwitchyPlayerData.backupLegacyData(context.playerDataDir, uuid, nbt.getCompoundTag("switchy:presets"));
+            Set<ResourceLocation> skipped = new HashSet<>();
+            SwitchyPlayerData data = SwitchyPlayerData.migrateLegacy(nbt, context.defaultNbt.copy(), uuid.toString(), skipped);
+            try {
+                SwitchyProfileStore.writeOffline(file, context.storeDirectory, uuid, nbt, data);
+            } finally {
+                data.release();
+            }
+            for (ResourceLocation id : skipped) {
+                result.skipped.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+            }
+            result.migrated.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            Switchy.LOGGER.error("[Switchy] Failed to migrate legacy switchy data in {}", file.getName(), e);
+            result.failed.incrementAndGet();
+        }
+    }
+
+    private static class MigrateTask extends RecursiveAction {
+        private final Context context;
+        private final File[] files;
+        private final int from;
+        private final int to;
+
+        private MigrateTask(Context context, File[] files, int from, int to) {
+            this.context = context;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                for (int i = from; i < to; i++) {
+                    migrate(context, files[i]);
+                    context.processed();
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MigrateTask(context, files, from, middle), new MigrateTask(context, files, middle, to));
+        }
+    }
+
+    private static class Context {
+        private final MinecraftServer server;
+        private final File playerDataDir;
+        private final File storeDirectory;
+        private final Set<UUID> online;
+        private final NBTTagCompound defaultNbt;
+        private final Consumer<String> progress;
+        private final AtomicInteger processed = new AtomicInteger();
+        private final Result result;
+
+        private Context(MinecraftServer server, File playerDataDir, File storeDirectory, Set<UUID> online, NBTTagCompound defaultNbt, int total, Consumer<String> progress) {
+            this.server = server;
+            this.playerDataDir = playerDataDir;
+            this.storeDirectory = storeDirectory;
+            this.online = online;
+            this.defaultNbt = defaultNbt;
+            this.progress = progress;
+            this.result = new Result(total);
+        }
+
+        // reports every tenth of the way through
+        private void processed() {
+            int count = processed.incrementAndGet();
+            int total = result.total;
+            if (count * 10 / total != (count - 1) * 10 / total && count < total) {
+                String message = String.format("Processed %d of %d player files (%d migrated so far)", count, total, result.migrated());
+                server.addScheduledTask(() -> progress.accept(message));
+            }
+        }
+    }
+
+    public static class Result {
+        private final int total;
+        private final AtomicInteger migrated = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger online = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Map<ResourceLocation, AtomicInteger> skipped = new ConcurrentHashMap<>();
+        private volatile long nanos;
+
+        private Result(int total) {
+            this.total = total;
+        }
+
+        public int total() {
+            return total;
+        }
+
+        public int migrated() {
+            return migrated.get();
+        }
+
+        public int unchanged() {
+            return unchanged.get();
+        }
+
+        public int online() {
+            return online.get();
+        }
+
+        public int failed() {
+            return failed.get();
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        // component id to the number of migrated players it couldn't be enabled or recovered for
+        public Map<ResourceLocation, Integer> skippedComponents() {
+            return skipped.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get()));
+        }
+    }
+}
@@ -2,44 +2,68 @@ package dev.sisby.switchy.data;
 
 import com.google.common.collect.Sets;
 import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.SwitchyConfig;
 import dev.sisby.switchy.duck.SwitchyPlayer;
 import dev.sisby.switchy.exception.NbtException;
 import dev.sisby.switchy.exception.ProfileCurrentException;
 import dev.sisby.switchy.exception.ProfileExistsException;
 import dev.sisby.switchy.exception.ProfileMissingException;
 import dev.sisby.switchy.exception.ProfilePreciousException;
+import dev.sisby.switchy.exception.ProfileQuotaException;
 import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagDouble;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.nbt.NBTTagString;
-import net.minecraft.network.play.server.SPacketHeldItemChange;
-import net.minecraft.network.play.server.SPacketPlayerAbilities;
-import net.minecraft.network.play.server.SPacketSetExperience;
-import net.minecraft.network.play.server.SPacketUpdateHealth;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextFormatting;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class SwitchyPlayerData {
     private String current;
     private ITextComponent greeting;
     private final Set<SwitchyComponentType<?>> componentTypes;
+    // ordinals of componentTypes
+    private final BitSet enabled = new BitSet();
     private final Map<String, SwitchyProfile> profiles;
+    private SwitchyItemPool itemPool = new SwitchyItemPool();
+    private long revision;
+    private volatile long storedRevision = -1;
+    // the revision of the store that's actually on disk, which trails storedRevision while the writer catches up
+    private volatile long writtenRevision = -1;
+    // the last journal record these profiles reflect
+    private long journalSequence;
+    // ordinals of current-profile components captured with a new value since it became current. saves don't capture
+    // the current profile, so the switch away from it journals all of them
+    private final BitSet unjournaled = new BitSet();
+    private boolean detached;
 
     public SwitchyPlayerData(String current, ITextComponent greeting, Set<SwitchyComponentType<?>> componentTypes, Map<String, SwitchyProfile> profiles) {
         this.current = current;
         this.greeting = greeting;
         this.componentTypes = componentTypes;
+        for (SwitchyComponentType<?> type : componentTypes) {
+            enabled.set(type.ordinal());
+        }
         this.profiles = profiles;
+        SwitchyProfile currentProfile = profiles.get(current);
+        if (currentProfile != null) currentProfile.components().setPinned(true);
     }
 
     public static SwitchyPlayerData of(EntityPlayerMP player) {
@@ -51,20 +75,152 @@ public class SwitchyPlayerData {
     }
 
     public static SwitchyPlayerData create(EntityPlayerMP player, NBTTagCompound nbt) {
+        SwitchyPlayerData data = withDefaultProfile();
+        for (SwitchyComponentType<?> componentType : Sets.difference(SwitchyComponentTypes.instance().values(), data.componentTypes)) {
+            data.initComponent(componentType, player, nbt);
+        }
+        if (nbt.hasKey("switchy:presets", 10)) {
+            data.recoverLegacyData(player, nbt.getCompoundTag("switchy:presets"));
+        }
+        return data;
+    }
+
+    // the same as create() followed by legacy recovery, for a player file whose player isn't online.
+    // only components that initialize from the player nbt can be enabled; the rest are reported as skipped
+    static SwitchyPlayerData migrateLegacy(NBTTagCompound nbt, NBTTagCompound defaultNbt, String name, Set<ResourceLocation> skipped) {
+        SwitchyPlayerData data = withDefaultProfile();
+        data.detach();
+        for (SwitchyComponentType<?> componentType : SwitchyComponentTypes.instance().values()) {
+            if (!data.initComponent(componentType, null, nbt, name)) skipped.add(componentType.id());
+        }
+        data.recoverLegacyProfiles(nbt.getCompoundTag("switchy:presets"), id -> data.getOrCreateProfile(id, null, name, () -> defaultNbt), name, skipped);
+        return data;
+    }
+
+    private static SwitchyPlayerData withDefaultProfile() {
         SwitchyPlayerData data = new SwitchyPlayerData(
             "default",
             null,
             new LinkedHashSet<>(),
             new LinkedHashMap<>()
         );
-        data.profiles.put("default", new SwitchyProfile("default", SwitchyComponentMap.empty()));
-        for (SwitchyComponentType<?> componentType : Sets.difference(SwitchyComponentTypes.instance().values(), data.componentTypes)) {
-            data.initComponent(componentType, player, nbt);
+        SwitchyProfile defaultProfile = new SwitchyProfile("default", SwitchyComponentMap.empty());
+        defaultProfile.components().setPinned(true);
+        data.profiles.put("default", defaultProfile);
+        return data;
+    }
+
+    // migration runs on worker threads, where the shared profile cache would evict online players' maps
+    private void detach() {
+        detached = true;
+        for (SwitchyProfile profile : profiles.values()) {
+            profile.components().detach();
         }
-        if (nbt.hasKey("switchy:presets", 10)) {
-            data.recoverLegacyData(player, nbt.getCompoundTag("switchy:presets"));
+    }
+
+    private void setCurrent(String profileId) {
+        SwitchyProfile previous = profiles.get(current);
+        if (previous != null) previous.components().setPinned(false);
+        current = profileId;
+        SwitchyProfile next = profiles.get(profileId);
+        if (next != null) next.components().setPinned(true);
+    }
+
+    void replaceComponents(String profileId, NBTTagCompound components) {
+        SwitchyProfile previous = profiles.get(profileId);
+        if (previous != null) SwitchyProfileCache.release(previous.components());
+        SwitchyComponentMap replacement = SwitchyComponentMap.lazy(components, SwitchyComponentTypes.instance());
+        replacement.markDirty();
+        if (detached) replacement.detach();
+        replacement.setPinned(profileId.equals(current));
+        profiles.put(profileId, new SwitchyProfile(profileId, replacement));
+        touch();
+    }
+
+    // the keys name every changed component; the ones missing from the compound were cleared
+    void patchComponents(String profileId, Collection<String> keys, NBTTagCompound changed) {
+        SwitchyProfile profile = profiles.get(profileId);
+        if (profile == null) return;
+        SwitchyComponentTypes types = SwitchyComponentTypes.instance();
+        SwitchyComponentMap patch = SwitchyComponentMap.fromNBT(changed, types);
+        for (String key : keys) {
+            SwitchyComponentType<?> type = types.get(key);
+            if (type != null) patch(profile.components(), patch, type);
         }
-        return data;
+        touch();
+    }
+
+    private static <T> void patch(SwitchyComponentMap components, SwitchyComponentMap patch, SwitchyComponentType<T> type) {
+        components.set(type, patch.get(type));
+    }
+
+    // the player is only needed to create a profile that doesn't exist
+    void forceCurrent(String profileId, @Nullable EntityPlayerMP player) {
+        if (!profileExists(profileId)) {
+            if (player == null) throw new ProfileMissingException(profileId);
+            getOrCreateProfile(profileId, player, player.getGameProfile().getName(), () -> createDefaultPlayerNbt(player));
+        }
+        setCurrent(profileId);
+        touch();
+    }
+
+    // the player file holds the body of the profile it was saved in. when a store written after that save or a replayed
+    // switch left another profile current, that profile is applied before anything captures the body into it
+    public void restoreCurrent(EntityPlayerMP player, NBTTagCompound playerNbt, String savedCurrent) throws NbtException {
+        if (current.equals(savedCurrent)) return;
+        Switchy.LOGGER.warn("[Switchy] {} was saved in profile {} but {} is current, applying it", player.getGameProfile().getName(), savedCurrent, current);
+        NBTTagCompound body = playerNbt.copy();
+        SwitchyComponentMap components = profiles.get(current).components();
+        for (SwitchyComponentType<?> componentType : components.keySet()) {
+            componentType.tryMutate(components, body, player);
+        }
+        player.readFromNBT(body);
+    }
+
+    public void release() {
+        for (SwitchyProfile profile : profiles.values()) {
+            SwitchyProfileCache.release(profile.components());
+        }
+    }
+
+    private void touch() {
+        revision = SwitchyComponentMap.nextRevision();
+    }
+
+    public boolean hasUnstoredChanges() {
+        return changedSince(storedRevision);
+    }
+
+    public boolean isStoreWritten() {
+        return !changedSince(writtenRevision);
+    }
+
+    private boolean changedSince(long stored) {
+        if (stored < 0 || revision > stored) return true;
+        for (SwitchyProfile profile : profiles.values()) {
+            if (profile.components().revision() > stored) return true;
+        }
+        return false;
+    }
+
+    public void markStored(long revision) {
+        storedRevision = revision;
+    }
+
+    public void markWritten(long revision) {
+        writtenRevision = revision;
+    }
+
+    public long journalSequence() {
+        return journalSequence;
+    }
+
+    void setJournalSequence(long sequence) {
+        journalSequence = sequence;
+    }
+
+    public void markUnstored() {
+        storedRevision = -1;
     }
 
     public boolean profileExists(String profileId) {
@@ -75,6 +231,28 @@ public class SwitchyPlayerData {
         return getProfile(current(), player);
     }
 
+    // serialized size of every profile, as of the last time each was saved or loaded
+    public long totalSize() {
+        long size = 0;
+        for (SwitchyProfile profile : profiles.values()) {
+            size += profile.components().estimatedSize();
+        }
+        return size;
+    }
+
+    // quotas only refuse new profiles; a player over the limit can still switch between the ones they have
+    public void checkQuota(String profileId) throws ProfileQuotaException {
+        if (profileExists(profileId)) return;
+        if (SwitchyConfig.maxProfiles > 0 && profiles.size() >= SwitchyConfig.maxProfiles) {
+            throw ProfileQuotaException.profiles(SwitchyConfig.maxProfiles);
+        }
+        long limit = SwitchyConfig.maxProfileKb * 1024L;
+        if (limit > 0) {
+            long used = totalSize();
+            if (used > limit) throw ProfileQuotaException.bytes(used, limit);
+        }
+    }
+
     public Set<String> keySet() {
         return profiles.keySet();
     }
@@ -83,6 +261,35 @@ public class SwitchyPlayerData {
         return componentTypes;
     }
 
+    public boolean isEnabled(SwitchyComponentType<?> type) {
+        return enabled.get(type.ordinal());
+    }
+
+    // false for a group with no members
+    public boolean isGroupEnabled(ResourceLocation group) {
+        BitSet members = SwitchyComponentTypes.instance().memberBits(group);
+        if (members.isEmpty()) return false;
+        for (int i = members.nextSetBit(0); i >= 0; i = members.nextSetBit(i + 1)) {
+            if (!enabled.get(i)) return false;
+        }
+        return true;
+    }
+
+    public boolean isGroupPartlyEnabled(ResourceLocation group) {
+        return SwitchyComponentTypes.instance().memberBits(group).intersects(enabled);
+    }
+
+    // ordinals of the registered types that are (or aren't) enabled
+    public BitSet componentBits(boolean enabled) {
+        BitSet bits = (BitSet) SwitchyComponentTypes.instance().typeBits().clone();
+        if (enabled) {
+            bits.and(this.enabled);
+        } else {
+            bits.andNot(this.enabled);
+        }
+        return bits;
+    }
+
     public Collection<SwitchyProfile> values() {
         return profiles.values();
     }
@@ -123,15 +330,19 @@ public class SwitchyPlayerData {
             
             defaultedGreeting = prefix;
         }
+        if (greeting != null) touch();
         greeting = null;
         return defaultedGreeting;
     }
 
     public SwitchyProfile getProfile(String profileId, EntityPlayerMP player) throws NbtException {
+        SwitchyProfile profile = profiles.get(profileId);
         if (profileId.equals(current)) {
-            updateFromPlayer(profiles.get(profileId), player);
+            updateFromPlayer(profile, player);
+        } else if (profile != null) {
+            SwitchyProfileCache.touch(profile.components());
         }
-        return profiles.get(profileId);
+        return profile;
     }
 
     public int initComponents(Set<SwitchyComponentType<?>> types, EntityPlayerMP player) {
@@ -151,14 +362,21 @@ public class SwitchyPlayerData {
     }
 
     public boolean initComponent(SwitchyComponentType<?> componentType, EntityPlayerMP player, NBTTagCompound nbt) {
+        return initComponent(componentType, player, nbt, player.getGameProfile().getName());
+    }
+
+    private boolean initComponent(SwitchyComponentType<?> componentType, @Nullable EntityPlayerMP player, NBTTagCompound nbt, String name) {
         try {
             List<SwitchyComponentMap> maps = profiles.values().stream().map(SwitchyProfile::components).collect(Collectors.toList());
-            componentType.tryInitialize(maps, nbt, player, player.getGameProfile().getName());
+            componentType.tryInitialize(maps, nbt, player, name);
         } catch (Exception e) {
-            Switchy.LOGGER.warn("Failed to initialize {} for {}", componentType.id(), player.getGameProfile().getName(), e);
+            // offline migrations count these instead of logging one per player file
+            if (player != null) Switchy.LOGGER.warn("Failed to initialize {} for {}", componentType.id(), name, e);
             return false;
         }
         componentTypes.add(componentType);
+        enabled.set(componentType.ordinal());
+        touch();
         return true;
     }
 
@@ -177,7 +395,9 @@ public class SwitchyPlayerData {
                 p.remove(type);
             }
             componentTypes.remove(type);
+            enabled.clear(type.ordinal());
         }
+        touch();
         return types.size();
     }
 
@@ -191,6 +411,8 @@ public class SwitchyPlayerData {
             profile.remove(componentType);
         }
         componentTypes.remove(componentType);
+        enabled.clear(componentType.ordinal());
+        touch();
         return true;
     }
 
@@ -223,24 +445,33 @@ public class SwitchyPlayerData {
         try {
             MinecraftServer server = player.getServerWorld().getMinecraftServer();
             File playerDataDir = new File(server.getWorld(0).getSaveHandler().getWorldDirectory(), "playerdata");
-            File backupFile = new File(playerDataDir, player.getUniqueID().toString() + "-switchy.dat_old");
-            
-            NBTTagCompound backupNbt = new NBTTagCompound();
-            backupNbt.setTag("backup", legacyData.copy());
-            
+            File backupFile = backupLegacyData(playerDataDir, player.getUniqueID(), legacyData);
             Switchy.LOGGER.info("[Switchy] Backed up legacy switchy data for {} to {}", player.getGameProfile().getName(), backupFile.getName());
         } catch (Exception e) {
             Switchy.LOGGER.error("[Switchy] Failed to save switchy data backup for {}!", player.getGameProfile().getName(), e);
             throw new RuntimeException("Failed to save switchy data backup!", e);
         }
-        
+        // recovered profiles are never refused by quotas
+        recoverLegacyProfiles(legacyData, id -> getOrCreateProfile(id, player, player.getGameProfile().getName(), () -> createDefaultPlayerNbt(player)), player.getGameProfile().getName(), new HashSet<>());
+    }
+
+    static File backupLegacyData(File playerDataDir, UUID uuid, NBTTagCompound legacyData) throws IOException {
+        File backupFile = new File(playerDataDir, uuid.toString() + "-switchy.dat_old");
+        NBTTagCompound backupNbt = new NBTTagCompound();
+        backupNbt.setTag("backup", legacyData.copy());
+        try (OutputStream out = new FileOutputStream(backupFile)) {
+            CompressedStreamTools.writeCompressed(backupNbt, out);
+        }
+        return backupFile;
+    }
+
+    private int recoverLegacyProfiles(NBTTagCompound legacyData, Function<String, SwitchyProfile> profileFactory, String name, Set<ResourceLocation> skippedTypeIds) {
         NBTTagCompound presets = legacyData.getCompoundTag("list");
         boolean containsDefault = false;
         int recovered = 0;
-        Set<ResourceLocation> skippedTypeIds = new HashSet<>();
         
         for (String id : presets.getKeySet()) {
-            SwitchyProfile profile = getOrCreateProfile(id.toLowerCase(), player);
+            SwitchyProfile profile = profileFactory.apply(id.toLowerCase());
             if (profile.id().equals("default")) containsDefault = true;
             
             try {
@@ -275,6 +506,7 @@ public class SwitchyPlayerData {
                 if (posTag instanceof NBTTagCompound) {
                     NBTTagCompound compound = (NBTTagCompound) posTag;
                     if (!compound.isEmpty()) {
+                        @SuppressWarnings("unchecked")
                         SwitchyComponentType<Vec3d> positionType = (SwitchyComponentType<Vec3d>) SwitchyComponentTypes.instance().get(SwitchyComponentTypes.POS);
                         if (positionType != null) {
                             Vec3d position = new Vec3d(compound.getFloat("x"), compound.getFloat("y"), compound.getFloat("z"));
@@ -284,13 +516,18 @@ public class SwitchyPlayerData {
                     }
                 }
             } catch (Exception e) {
-                Switchy.LOGGER.error("[Switchy] Failed to recover legacy precious data {} of {}", id, player.getGameProfile().getName(), e);
+                Switchy.LOGGER.error("[Switchy] Failed to recover legacy precious data {} of {}", id, name, e);
             }
         }
         
-        current = legacyData.getString("current").toLowerCase();
-        if (!containsDefault) profiles.remove("default");
-        Switchy.LOGGER.info("[Switchy] Finished recovering {} components from {} legacy switchy profiles for {}. Skipped: {}", recovered, presets.getSize(), player.getGameProfile().getName(), skippedTypeIds);
+        setCurrent(legacyData.getString("current").toLowerCase());
+        if (!containsDefault) {
+            SwitchyProfile removed = profiles.remove("default");
+            if (removed != null) SwitchyProfileCache.release(removed.components());
+        }
+        touch();
+        Switchy.LOGGER.info("[Switchy] Finished recovering {} components from {} legacy switchy profiles for {}. Skipped: {}", recovered, presets.getSize(), name, skippedTypeIds);
+        return recovered;
     }
 
     private NBTBase getNestedTag(NBTTagCompound compound, String path) {
@@ -309,31 +546,47 @@ public class SwitchyPlayerData {
         return current;
     }
 
-    public SwitchyProfile getOrCreateProfile(String profileId, EntityPlayerMP player) {
+    // quotas apply to every caller creating a profile for a player; legacy recovery and journal replay restore profiles
+    // the player already had, so they go through the private overload and are never refused
+    public SwitchyProfile getOrCreateProfile(String profileId, EntityPlayerMP player) throws ProfileQuotaException {
+        checkQuota(profileId);
+        return getOrCreateProfile(profileId, player, player.getGameProfile().getName(), () -> createDefaultPlayerNbt(player));
+    }
+
+    private SwitchyProfile getOrCreateProfile(String profileId, @Nullable EntityPlayerMP player, String name, Supplier<NBTTagCompound> defaultNbtSupplier) {
         if (profileExists(profileId)) return profiles.get(profileId);
         
-        NBTTagCompound defaultNbt = createDefaultPlayerNbt(player);
+        NBTTagCompound defaultNbt = defaultNbtSupplier.get();
         SwitchyComponentMap components = SwitchyComponentMap.empty();
         
         for (SwitchyComponentType<?> componentType : componentTypes) {
             try {
                 componentType.tryInitialize(Collections.singletonList(components), defaultNbt, player, profileId);
             } catch (Exception e) {
-                Switchy.LOGGER.warn("Failed to initialize {} for {} profile {}", componentType.id(), player.getGameProfile().getName(), profileId, e);
+                Switchy.LOGGER.warn("Failed to initialize {} for {} profile {}", componentType.id(), name, profileId, e);
             }
         }
         
+        // measured now so quota checks count it before its first save
+        components.toNBT(SwitchyComponentTypes.instance());
         SwitchyProfile newProfile = new SwitchyProfile(profileId, components);
         profiles.put(profileId, newProfile);
+        if (detached) components.detach();
+        components.setPinned(profileId.equals(current));
+        touch();
         return newProfile;
     }
     
     private NBTTagCompound createDefaultPlayerNbt(EntityPlayerMP player) {
+        return createDefaultPlayerNbt(player.getMaxHealth(), player.getServerWorld().getSpawnPoint(), player.dimension);
+    }
+
+    static NBTTagCompound createDefaultPlayerNbt(float maxHealth, BlockPos spawnPoint, int dimension) {
         NBTTagCompound nbt = new NBTTagCompound();
         
         nbt.setTag("Inventory", new NBTTagList());
         nbt.setTag("EnderItems", new NBTTagList());
-        nbt.setFloat("Health", player.getMaxHealth());
+        nbt.setFloat("Health", maxHealth);
         nbt.setInteger("foodLevel", 20);
         nbt.setFloat("foodSaturationLevel", 5.0F);
         nbt.setFloat("foodExhaustionLevel", 0.0F);
@@ -343,9 +596,9 @@ public class SwitchyPlayerData {
         nbt.setTag("ActiveEffects", new NBTTagList());
         
         Vec3d spawnPos = new Vec3d(
-            player.getServerWorld().getSpawnPoint().getX() + 0.5,
-            player.getServerWorld().getSpawnPoint().getY() + 1,
-            player.getServerWorld().getSpawnPoint().getZ() + 0.5
+            spawnPoint.getX() + 0.5,
+            spawnPoint.getY() + 1,
+            spawnPoint.getZ() + 0.5
         );
         NBTTagList posList = new NBTTagList();
         posList.appendTag(new NBTTagDouble(spawnPos.x));
@@ -355,43 +608,41 @@ public class SwitchyPlayerData {
         
         nbt.setFloat("yaw", 0.0F);
         nbt.setFloat("pitch", 0.0F);
-        nbt.setInteger("Dimension", player.dimension);
+        nbt.setInteger("Dimension", dimension);
         
         return nbt;
     }
 
     public void validate(EntityPlayerMP self, NBTTagCompound nbt) {
-        Set<ResourceLocation> groupsChecked = new HashSet<>();
-        Set<SwitchyComponentType<?>> typesToCheck = new HashSet<>(componentTypes);
-        
-        for (SwitchyComponentType<?> type : typesToCheck) {
-            ResourceLocation group = type.group();
-            if (group != null && !groupsChecked.contains(group)) {
-                groupsChecked.add(group);
-                for (SwitchyComponentType<?> otherType : SwitchyComponentTypes.instance().values()) {
-                    if (group.equals(otherType.group()) && !componentTypes.contains(otherType)) {
-                        Switchy.LOGGER.info("[Switchy] Enabling component {} of partially enabled group {} for user {}", otherType.id(), group, self.getGameProfile().getName());
-                        initComponent(otherType, self, nbt);
-                    }
+        SwitchyComponentTypes types = SwitchyComponentTypes.instance();
+        for (ResourceLocation group : types.groups()) {
+            if (!isGroupPartlyEnabled(group) || isGroupEnabled(group)) continue;
+            for (SwitchyComponentType<?> otherType : types.members(group)) {
+                if (!isEnabled(otherType)) {
+                    Switchy.LOGGER.info("[Switchy] Enabling component {} of partially enabled group {} for user {}", otherType.id(), group, self.getGameProfile().getName());
+                    initComponent(otherType, self, nbt);
                 }
             }
         }
     }
 
+    @Nullable
     private NBTTagCompound updateFromPlayer(SwitchyProfile profile, EntityPlayerMP player) throws NbtException {
-        NBTTagCompound nbt = new NBTTagCompound();
-        player.writeToNBT(nbt);
-        
+        NBTTagCompound nbt = null;
+        SwitchyComponentMap components = profile.components();
+
         for (SwitchyComponentType<?> componentType : componentTypes) {
-            if (componentType.nbtReader() != null) {
-                Object value = componentType.nbtReader().read(nbt);
-                profile.components().set(componentType, value);
-            } else if (componentType.playerReader() != null) {
-                Object value = componentType.playerReader().read(player, profile.id());
-                profile.components().set(componentType, value);
+            long revision = components.revision();
+            if (!componentType.tryReadPlayer(components, player, profile.id()) && componentType.nbtReader() != null) {
+                if (nbt == null) {
+                    nbt = new NBTTagCompound();
+                    player.writeToNBT(nbt);
+                }
+                componentType.tryReadNbt(components, nbt);
             }
+            if (components.revision() != revision) unjournaled.set(componentType.ordinal());
         }
-        
+
         return nbt;
     }
 
@@ -400,6 +651,7 @@ public class SwitchyPlayerData {
         if (profileExists(newId)) throw new ProfileExistsException(newId);
         profiles.put(newId, profiles.remove(oldId).withId(newId));
         if (current.equals(oldId)) current = newId;
+        touch();
     }
 
     public SwitchyProfile deleteProfile(String profileId) {
@@ -411,46 +663,80 @@ public class SwitchyPlayerData {
             .collect(Collectors.toSet());
         if (!preciousComponents.isEmpty()) throw new ProfilePreciousException(preciousComponents, profile.components());
         profiles.remove(profileId);
+        SwitchyProfileCache.release(profile.components());
+        touch();
         return profile;
     }
 
-    private void switchProfile(SwitchyProfile nextProfile, EntityPlayerMP player, ITextComponent greeting) throws NbtException {
+    private void switchProfile(SwitchyProfile nextProfile, EntityPlayerMP player, ITextComponent greeting, @Nullable SwitchyStagedProfile staged) throws NbtException {
+        long start = System.nanoTime();
         SwitchyProfile currentProfile = profiles.get(current);
         boolean selfSwitch = currentProfile == nextProfile;
-        
+        SwitchyClientSync sync = SwitchyClientSync.capture(player);
+        long syncNanos = System.nanoTime() - start;
+
+        long phaseStart = System.nanoTime();
         NBTTagCompound playerNbt;
+        BitSet outgoing = null;
         if (selfSwitch) {
             playerNbt = new NBTTagCompound();
             player.writeToNBT(playerNbt);
         } else {
             playerNbt = updateFromPlayer(currentProfile, player);
+            outgoing = (BitSet) unjournaled.clone();
+            unjournaled.clear();
         }
-        
-        Switchy.LOGGER.info("[Switchy] Applying {} components for profile {}", nextProfile.components().keySet().size(), nextProfile.id());
-        for (SwitchyComponentType<?> componentType : nextProfile.components().keySet()) {
-            if (componentType == SwitchyComponentTypes.INVENTORY) {
-                Switchy.LOGGER.info("[Switchy] Before mutate inventory tag: {}", playerNbt.getTag("Inventory"));
-                Switchy.LOGGER.info("[Switchy] Applying inventory value: {}", nextProfile.components().get(componentType));
+        SwitchyStats.record(SwitchyStats.Phase.CAPTURE, System.nanoTime() - phaseStart);
+
+        phaseStart = System.nanoTime();
+        if (!selfSwitch && SwitchyConfig.deltaSwitching && tryDeltaSwitch(currentProfile, nextProfile, player)) {
+            SwitchyStats.record(SwitchyStats.Phase.MUTATE, System.nanoTime() - phaseStart);
+            setCurrent(nextProfile.id());
+            this.greeting = greeting;
+            touch();
+        } else {
+            if (playerNbt == null) {
+                playerNbt = new NBTTagCompound();
+                player.writeToNBT(playerNbt);
             }
-            componentType.tryMutate(nextProfile.components(), playerNbt, player);
-            if (componentType == SwitchyComponentTypes.INVENTORY) {
-                Switchy.LOGGER.info("[Switchy] After mutate inventory tag: {}", playerNbt.getTag("Inventory"));
+            Switchy.LOGGER.debug("[Switchy] Applying {} components for profile {}", nextProfile.components().keySet().size(), nextProfile.id());
+            for (SwitchyComponentType<?> componentType : nextProfile.components().keySet()) {
+                long componentStart = System.nanoTime();
+                NBTBase fragment = staged != null ? staged.fragment(componentType, nextProfile) : null;
+                if (fragment == null || !componentType.tryMutateStaged(fragment, playerNbt)) {
+                    componentType.tryMutate(nextProfile.components(), playerNbt, player);
+                }
+                SwitchyStats.record(componentType, System.nanoTime() - componentStart);
             }
+            SwitchyStats.record(SwitchyStats.Phase.MUTATE, System.nanoTime() - phaseStart);
+
+            setCurrent(nextProfile.id());
+            this.greeting = greeting;
+            touch();
+
+            phaseStart = System.nanoTime();
+            player.readFromNBT(playerNbt);
+            // readFromNBT leaves loaded data alone, but make sure the player keeps our mutated instance
+            ((SwitchyPlayer) player).switchy$setPlayerData(this);
+            SwitchyStats.record(SwitchyStats.Phase.READ_NBT, System.nanoTime() - phaseStart);
+
+            phaseStart = System.nanoTime();
+            updateFromPlayer(nextProfile, player);
+            SwitchyStats.record(SwitchyStats.Phase.RECAPTURE, System.nanoTime() - phaseStart);
         }
 
-        current = nextProfile.id();
-        this.greeting = greeting;
+        if (outgoing != null && SwitchyConfig.journal) {
+            // the last save may predate any of these captures, so replay needs their values to rebuild the outgoing profile
+            SwitchyComponentTypes types = SwitchyComponentTypes.instance();
+            List<SwitchyComponentType<?>> changed = outgoing.stream().mapToObj(SwitchyComponentTypes::byOrdinal).collect(Collectors.toList());
+            List<String> keys = outgoing.stream().mapToObj(types::key).filter(Objects::nonNull).collect(Collectors.toList());
+            Switchy.JOURNAL.recordSwitch(player, currentProfile.id(), nextProfile.id(), keys, currentProfile.components().toNBT(types, changed));
+        }
 
-        player.readFromNBT(playerNbt);
-        // readFromNBT rehydrates a fresh SwitchyPlayerData instance, so keep our mutated data alive
-        ((SwitchyPlayer) player).switchy$setPlayerData(this);
-        updateFromPlayer(nextProfile, player);
-        
-        player.sendContainerToPlayer(player.inventoryContainer);
-        player.connection.sendPacket(new SPacketPlayerAbilities(player.capabilities));
-        player.connection.sendPacket(new SPacketUpdateHealth(player.getHealth(), player.getFoodStats().getFoodLevel(), player.getFoodStats().getSaturationLevel()));
-        player.connection.sendPacket(new SPacketSetExperience(player.experience, player.experienceTotal, player.experienceLevel));
-        player.connection.sendPacket(new SPacketHeldItemChange(player.inventory.currentItem));
+        phaseStart = System.nanoTime();
+        sync.send(player);
+        SwitchyStats.record(SwitchyStats.Phase.SYNC, syncNanos + System.nanoTime() - phaseStart);
+        SwitchyStats.record(SwitchyStats.Phase.TOTAL, System.nanoTime() - start);
         
         Switchy.LOGGER.info("[Switchy] Switched from {} to {}, current is now: {}", currentProfile.id(), nextProfile.id(), current);
         
@@ -470,12 +756,34 @@ public class SwitchyPlayerData {
         player.sendMessage(prefix);
     }
 
+    private boolean tryDeltaSwitch(SwitchyProfile currentProfile, SwitchyProfile nextProfile, EntityPlayerMP player) {
+        List<SwitchyComponentType<?>> changed = new ArrayList<>();
+        for (SwitchyComponentType<?> componentType : nextProfile.components().keySet()) {
+            if (!componentType.valueEquals(currentProfile.components(), nextProfile.components())) {
+                // anything that only knows how to mutate NBT needs the full round trip
+                if (componentType.playerMutator() == null) return false;
+                changed.add(componentType);
+            }
+        }
+
+        Switchy.LOGGER.debug("[Switchy] Applying {} changed components of {} directly for profile {}", changed.size(), nextProfile.components().keySet().size(), nextProfile.id());
+        boolean moved = false;
+        for (SwitchyComponentType<?> componentType : changed) {
+            long componentStart = System.nanoTime();
+            componentType.tryMutatePlayer(nextProfile.components(), player);
+            SwitchyStats.record(componentType, System.nanoTime() - componentStart);
+            moved |= SwitchyComponentTypes.LOCATION_GROUP.equals(componentType.group());
+        }
+        if (moved) player.connection.setPlayerLocation(player.posX, player.posY, player.posZ, player.rotationYaw, player.rotationPitch);
+        return true;
+    }
+
     public static SwitchyPlayerData fromNbt(NBTTagCompound playerNbt) {
         if (SwitchyComponentTypes.instance() == null) {
             throw new IllegalStateException("Can't load switchy data while the types aren't loaded!");
         }
         
-        NBTTagCompound switchyNbt = playerNbt.getCompoundTag(Switchy.ID);
+        NBTTagCompound switchyNbt = SwitchyCompactCodec.expand(playerNbt.getCompoundTag(Switchy.ID));
         
         String current = switchyNbt.getString("current");
         ITextComponent greeting = null;
@@ -487,7 +795,7 @@ public class SwitchyPlayerData {
         NBTTagList componentTypesList = switchyNbt.getTagList("componentTypes", 8);
         for (int i = 0; i < componentTypesList.tagCount(); i++) {
             String typeId = componentTypesList.getStringTagAt(i);
-            SwitchyComponentType<?> type = SwitchyComponentTypes.instance().get(new ResourceLocation(typeId));
+            SwitchyComponentType<?> type = SwitchyComponentTypes.instance().get(typeId);
             if (type != null) {
                 componentTypes.add(type);
             }
@@ -495,15 +803,42 @@ public class SwitchyPlayerData {
         
         Map<String, SwitchyProfile> profiles = new LinkedHashMap<>();
         NBTTagCompound profilesNbt = switchyNbt.getCompoundTag("profiles");
+        SwitchyItemPool itemPool = SwitchyItemPool.fromNBT(switchyNbt.getCompoundTag("items"));
         for (String profileId : profilesNbt.getKeySet()) {
-            SwitchyProfile profile = SwitchyProfile.fromNBT(profilesNbt.getCompoundTag(profileId), SwitchyComponentTypes.instance());
+            NBTTagCompound profileNbt = profilesNbt.getCompoundTag(profileId);
+            SwitchyProfile profile;
+            if (itemPool.size() > 0) {
+                List<String> hashes = new ArrayList<>();
+                NBTTagCompound refs = profileNbt.getCompoundTag("components");
+                SwitchyComponentMap components = SwitchyComponentMap.lazy(itemPool.expand(refs, hashes), SwitchyComponentTypes.instance());
+                itemPool.adopt(components, refs, hashes);
+                profile = new SwitchyProfile(profileNbt.getString("id"), components);
+            } else {
+                profile = SwitchyProfile.fromNBT(profileNbt, SwitchyComponentTypes.instance());
+            }
             profiles.put(profileId, profile);
         }
         
-        return new SwitchyPlayerData(current, greeting, componentTypes, profiles);
+        SwitchyPlayerData data = new SwitchyPlayerData(current, greeting, componentTypes, profiles);
+        data.itemPool = itemPool;
+        data.journalSequence = switchyNbt.getLong("journal");
+        return data;
     }
 
     public void writeNbt(NBTTagCompound playerNbt) {
+        // the player file keeps every profile inline until the store it would point at is on disk,
+        // so a crash before the writer catches up never leaves a pointer to a missing or stale store
+        if (SwitchyConfig.storage == SwitchyConfig.Storage.SEPARATE && isStoreWritten()) {
+            if (size() > 1) {
+                playerNbt.setTag(Switchy.ID, SwitchyProfileStore.pointer(current));
+            }
+        } else {
+            // compacted only on the way to disk, see SwitchyCompactCodec.compactPlayerFile
+            writeFullNbt(playerNbt);
+        }
+    }
+
+    public void writeFullNbt(NBTTagCompound playerNbt) {
         if (SwitchyComponentTypes.instance() == null) {
             throw new IllegalStateException("Can't save switchy data while the types aren't loaded!");
         }
@@ -512,6 +847,7 @@ public class SwitchyPlayerData {
             NBTTagCompound switchyNbt = new NBTTagCompound();
             
             switchyNbt.setString("current", current);
+            if (journalSequence > 0) switchyNbt.setLong("journal", journalSequence);
             
             if (greeting != null) {
                 switchyNbt.setString("greeting", greeting.getUnformattedText());
@@ -519,32 +855,65 @@ public class SwitchyPlayerData {
             
             NBTTagList componentTypesList = new NBTTagList();
             for (SwitchyComponentType<?> type : componentTypes) {
-                ResourceLocation id = SwitchyComponentTypes.instance().id(type);
-                if (id != null) {
-                    componentTypesList.appendTag(new NBTTagString(id.toString()));
+                String key = SwitchyComponentTypes.instance().key(type);
+                if (key != null) {
+                    componentTypesList.appendTag(new NBTTagString(key));
                 }
             }
             switchyNbt.setTag("componentTypes", componentTypesList);
             
             NBTTagCompound profilesNbt = new NBTTagCompound();
             for (Map.Entry<String, SwitchyProfile> entry : profiles.entrySet()) {
-                profilesNbt.setTag(entry.getKey(), entry.getValue().toNBT(SwitchyComponentTypes.instance()));
+                profilesNbt.setTag(entry.getKey(), SwitchyConfig.itemDedup ? pooledProfileNbt(entry.getValue()) : entry.getValue().toNBT(SwitchyComponentTypes.instance()));
             }
             switchyNbt.setTag("profiles", profilesNbt);
+
+            if (SwitchyConfig.itemDedup) {
+                itemPool.retain(profiles.values().stream().map(SwitchyProfile::components).collect(Collectors.toCollection(() -> Collections.newSetFromMap(new IdentityHashMap<>()))));
+                itemPool.compact();
+                if (itemPool.size() > 0) switchyNbt.setTag("items", itemPool.toNBT());
+            }
             
             playerNbt.setTag(Switchy.ID, switchyNbt);
         }
     }
 
+    private NBTTagCompound pooledProfileNbt(SwitchyProfile profile) {
+        SwitchyComponentMap components = profile.components();
+        NBTTagCompound refs = itemPool.cached(components);
+        if (refs == null) refs = itemPool.pool(components, components.toNBT(SwitchyComponentTypes.instance()));
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setString("id", profile.id());
+        nbt.setTag("components", refs);
+        return nbt;
+    }
+
     public void switchOrCreateProfile(String profileId, EntityPlayerMP player, ITextComponent greeting) throws NbtException {
+        switchOrCreateProfile(profileId, player, greeting, null);
+    }
+
+    public void switchOrCreateProfile(String profileId, EntityPlayerMP player, ITextComponent greeting, @Nullable SwitchyStagedProfile staged) throws NbtException {
         SwitchyProfile nextProfile = getOrCreateProfile(profileId.toLowerCase(), player);
         if (nextProfile.id().equals(current)) throw new ProfileCurrentException(nextProfile.id());
-        switchProfile(nextProfile, player, greeting);
+        switchProfile(nextProfile, player, greeting, staged);
+    }
+
+    // replaces the player's live state with the current profile as stored, e.g. after restoring a snapshot
+    void applyCurrent(EntityPlayerMP player) throws NbtException {
+        switchProfile(profiles.get(current), player, greeting, null);
+    }
+
+    // the same for a saved player that isn't online; components that can only mutate a live player are left as they were
+    void applyCurrent(NBTTagCompound playerNbt) throws NbtException {
+        SwitchyComponentMap components = profiles.get(current).components();
+        for (SwitchyComponentType<?> componentType : components.keySet()) {
+            if (componentType.nbtMutator() != null) componentType.tryMutate(components, playerNbt, null);
+        }
     }
 
     public void selfSwitch(SwitchyProfile currentProfile, EntityPlayerMP player, ITextComponent greeting) throws NbtException {
         if (!currentProfile.id().equals(current)) throw new ProfileCurrentException(currentProfile.id());
-        switchProfile(currentProfile, player, greeting);
+        switchProfile(currentProfile, player, greeting, null);
     }
     
     private static class Pair<L, R> {
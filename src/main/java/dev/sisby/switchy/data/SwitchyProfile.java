@@ -59,7 +59,7 @@ public class SwitchyProfile implements SwitchyComponentHolder<SwitchyProfile> {
 
     public static SwitchyProfile fromNBT(NBTTagCompound nbt, SwitchyComponentTypes types) {
         String id = nbt.getString("id");
-        SwitchyComponentMap components = SwitchyComponentMap.fromNBT(nbt.getCompoundTag("components"), types);
+        SwitchyComponentMap components = SwitchyComponentMap.lazy(nbt.getCompoundTag("components"), types);
         return new SwitchyProfile(id, components);
     }
 }
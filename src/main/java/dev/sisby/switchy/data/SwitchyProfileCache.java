@@ -0,0 +1,82 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.SwitchyConfig;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Decoded component maps of inactive profiles across all players, least recently used first.
+// Sizes are the serialized NBT size of each map; maps over budget are packed back to compact bytes.
+public class SwitchyProfileCache {
+    private static final LinkedHashMap<SwitchyComponentMap, Long> ENTRIES = new LinkedHashMap<>(16, 0.75F, true);
+    private static long usage;
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+
+    public static synchronized void onDecoded(SwitchyComponentMap components) {
+        misses++;
+        track(components);
+    }
+
+    public static synchronized void touch(SwitchyComponentMap components) {
+        if (ENTRIES.get(components) != null) hits++;
+    }
+
+    public static synchronized void track(SwitchyComponentMap components) {
+        Long previous = ENTRIES.put(components, components.estimatedSize());
+        usage += components.estimatedSize() - (previous != null ? previous : 0);
+        trim(components);
+    }
+
+    public static synchronized void resize(SwitchyComponentMap components) {
+        if (ENTRIES.containsKey(components)) track(components);
+    }
+
+    public static synchronized void release(SwitchyComponentMap components) {
+        Long previous = ENTRIES.remove(components);
+        if (previous != null) usage -= previous;
+    }
+
+    private static void trim(SwitchyComponentMap keep) {
+        long budget = SwitchyConfig.decodedProfileBudgetKb * 1024L;
+        if (budget <= 0) return;
+        Iterator<Map.Entry<SwitchyComponentMap, Long>> iterator = ENTRIES.entrySet().iterator();
+        while (usage > budget && iterator.hasNext()) {
+            Map.Entry<SwitchyComponentMap, Long> entry = iterator.next();
+            // never pack the map that's being decoded or written right now
+            if (entry.getKey() == keep) continue;
+            iterator.remove();
+            usage -= entry.getValue();
+            entry.getKey().evict();
+            evictions++;
+        }
+    }
+
+    public static synchronized int size() {
+        return ENTRIES.size();
+    }
+
+    public static synchronized long usage() {
+        return usage;
+    }
+
+    public static synchronized long hits() {
+        return hits;
+    }
+
+    public static synchronized long misses() {
+        return misses;
+    }
+
+    public static synchronized long evictions() {
+        return evictions;
+    }
+
+    public static synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+}
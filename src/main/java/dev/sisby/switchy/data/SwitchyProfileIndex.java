@@ -0,0 +1,378 @@
+package dev.sisby.switchy.data;
+
+import com.mojang.authlib.GameProfile;
+import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.util.NBTSizes;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+// World-level summary of every player's saved profiles, so admin queries don't have to load player files.
+// Kept current from each player's in-memory data whenever their player file is saved; rebuilt by scanning the world when missing.
+public class SwitchyProfileIndex {
+    public static final String FILE = "index.dat";
+    private static final int VERSION = 1;
+
+    private final Map<UUID, Entry> entries = new HashMap<>();
+    private final Map<String, Set<UUID>> byProfile = new HashMap<>();
+    private final Map<String, UUID> byName = new HashMap<>();
+    @Nullable
+    private File file;
+    private boolean dirty;
+    private volatile boolean rebuilding;
+
+    public synchronized void open(MinecraftServer server) {
+        clear();
+        file = new File(SwitchyProfileStore.directory(server), FILE);
+        if (!file.isFile()) {
+            Switchy.LOGGER.info("[Switchy] No profile index found, building one from saved player data");
+            rebuild(server, null);
+            return;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            NBTTagCompound nbt = CompressedStreamTools.readCompressed(in);
+            if (nbt.getInteger("version") != VERSION) throw new IOException("Unsupported profile index version " + nbt.getInteger("version"));
+            NBTTagCompound players = nbt.getCompoundTag("players");
+            for (String key : players.getKeySet()) {
+                put(Entry.fromNBT(UUID.fromString(key), players.getCompoundTag(key)));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Switchy.LOGGER.error("[Switchy] Failed to read profile index {}, rebuilding it", file, e);
+            clear();
+            rebuild(server, null);
+        }
+    }
+
+    public synchronized void close() {
+        save();
+        clear();
+        file = null;
+    }
+
+    // called whenever a player file is saved; cheap, since profile sizes are cached on their maps
+    public void update(EntityPlayerMP player, SwitchyPlayerData data) {
+        update(player.getUniqueID(), player.getGameProfile().getName(), data);
+    }
+
+    public synchronized void update(UUID uuid, String name, SwitchyPlayerData data) {
+        if (data.size() <= 1) {
+            remove(uuid);
+            return;
+        }
+        Entry previous = entries.get(uuid);
+        Entry entry = Entry.of(uuid, name, data);
+        if (!entry.equals(previous)) {
+            put(entry);
+            dirty = true;
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldSave(WorldEvent.Save event) {
+        if (!event.getWorld().isRemote && event.getWorld().provider.getDimension() == 0) {
+            save();
+        }
+    }
+
+    public synchronized void save() {
+        if (!dirty || file == null) return;
+        NBTTagCompound players = new NBTTagCompound();
+        for (Entry entry : entries.values()) {
+            players.setTag(entry.uuid.toString(), entry.toNBT());
+        }
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setInteger("version", VERSION);
+        nbt.setTag("players", players);
+        SwitchyProfileStore.write(file, nbt);
+        dirty = false;
+    }
+
+    public boolean isRebuilding() {
+        return rebuilding;
+    }
+
+    // reads every player file off the main thread, then swaps the result in on the main thread
+    public boolean rebuild(MinecraftServer server, @Nullable Consumer<Integer> done) {
+        if (rebuilding) return false;
+        rebuilding = true;
+        File worldDirectory = server.getWorld(0).getSaveHandler().getWorldDirectory();
+        Thread thread = new Thread(() -> {
+            List<Entry> scanned = Collections.emptyList();
+            try {
+                scanned = scan(worldDirectory);
+            } catch (RuntimeException e) {
+                Switchy.LOGGER.error("[Switchy] Failed to rebuild profile index", e);
+            }
+            List<Entry> result = scanned;
+            server.addScheduledTask(() -> {
+                replace(server, result);
+                rebuilding = false;
+                if (done != null) done.accept(result.size());
+            });
+        }, "Switchy Index Rebuild");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private static List<Entry> scan(File worldDirectory) {
+        File[] files = new File(worldDirectory, "playerdata").listFiles((dir, name) -> name.endsWith(".dat"));
+        if (files == null) return Collections.emptyList();
+        File storeDirectory = SwitchyProfileStore.directory(worldDirectory);
+        long start = System.nanoTime();
+        List<Entry> scanned = Arrays.stream(files).parallel()
+            .map(playerFile -> scan(playerFile, storeDirectory))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        Switchy.LOGGER.info("[Switchy] Indexed {} of {} player files in {}ms", scanned.size(), files.length, (System.nanoTime() - start) / 1_000_000);
+        return scanned;
+    }
+
+    @Nullable
+    private static Entry scan(File playerFile, File storeDirectory) {
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(playerFile.getName().substring(0, playerFile.getName().length() - 4));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        try {
+            NBTTagCompound switchyNbt = read(playerFile).getCompoundTag(Switchy.ID);
+            if (SwitchyProfileStore.isPointer(switchyNbt)) {
+                File store = SwitchyProfileStore.file(storeDirectory, uuid);
+                if (!store.isFile()) return null;
+                switchyNbt = read(store).getCompoundTag(Switchy.ID);
+            }
+            switchyNbt = SwitchyCompactCodec.expand(switchyNbt);
+            return switchyNbt.hasKey("profiles", 10) ? Entry.fromSaved(uuid, switchyNbt) : null;
+        } catch (IOException | RuntimeException e) {
+            Switchy.LOGGER.warn("[Switchy] Skipping unreadable player file {} while indexing: {}", playerFile.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static NBTTagCompound read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return CompressedStreamTools.readCompressed(in);
+        }
+    }
+
+    private synchronized void replace(MinecraftServer server, List<Entry> scanned) {
+        Map<UUID, String> names = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            names.put(entry.uuid, entry.name);
+        }
+        clear();
+        for (Entry entry : scanned) {
+            String name = names.get(entry.uuid);
+            if (name == null) {
+                GameProfile profile = server.getPlayerProfileCache().getProfileByUUID(entry.uuid);
+                name = profile != null ? profile.getName() : "";
+            }
+            put(entry.withName(name));
+        }
+        // online players may have changes newer than their files
+        for (EntityPlayerMP player : server.getPlayerList().getPlayers()) {
+            SwitchyPlayerData data = SwitchyPlayerData.ofEarly(player);
+            if (data != null) update(player, data);
+        }
+        dirty = true;
+        save();
+    }
+
+    private void put(Entry entry) {
+        remove(entry.uuid);
+        entries.put(entry.uuid, entry);
+        for (String profileId : entry.profiles.keySet()) {
+            byProfile.computeIfAbsent(profileId.toLowerCase(), k -> new LinkedHashSet<>()).add(entry.uuid);
+        }
+        if (!entry.name.isEmpty()) byName.put(entry.name.toLowerCase(), entry.uuid);
+    }
+
+    private void remove(UUID uuid) {
+        Entry previous = entries.remove(uuid);
+        if (previous == null) return;
+        dirty = true;
+        for (String profileId : previous.profiles.keySet()) {
+            Set<UUID> owners = byProfile.get(profileId.toLowerCase());
+            if (owners != null) {
+                owners.remove(uuid);
+                if (owners.isEmpty()) byProfile.remove(profileId.toLowerCase());
+            }
+        }
+        if (!previous.name.isEmpty()) byName.remove(previous.name.toLowerCase(), uuid);
+    }
+
+    private void clear() {
+        entries.clear();
+        byProfile.clear();
+        byName.clear();
+        dirty = false;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Nullable
+    public synchronized Entry get(UUID uuid) {
+        return entries.get(uuid);
+    }
+
+    @Nullable
+    public synchronized Entry get(String name) {
+        UUID uuid = byName.get(name.toLowerCase());
+        return uuid != null ? entries.get(uuid) : null;
+    }
+
+    public synchronized List<Entry> withProfile(String profileId) {
+        return byProfile.getOrDefault(profileId.toLowerCase(), Collections.emptySet()).stream().map(entries::get).collect(Collectors.toList());
+    }
+
+    public synchronized List<Entry> largest(int limit) {
+        return entries.values().stream().sorted(Comparator.comparingLong(Entry::totalSize).reversed()).limit(limit).collect(Collectors.toList());
+    }
+
+    public static class Entry {
+        private final UUID uuid;
+        private final String name;
+        private final String current;
+        private final List<String> components;
+        private final Map<String, Long> profiles;
+
+        private Entry(UUID uuid, String name, String current, List<String> components, Map<String, Long> profiles) {
+            this.uuid = uuid;
+            this.name = name;
+            this.current = current;
+            this.components = components;
+            this.profiles = profiles;
+        }
+
+        private static Entry of(UUID uuid, String name, SwitchyPlayerData data) {
+            List<String> components = new ArrayList<>();
+            for (SwitchyComponentType<?> type : data.componentSet()) {
+                String key = SwitchyComponentTypes.instance().key(type);
+                if (key != null) components.add(key);
+            }
+            Map<String, Long> profiles = new LinkedHashMap<>();
+            for (SwitchyProfile profile : data.values()) {
+                profiles.put(profile.id(), profile.components().estimatedSize());
+            }
+            return new Entry(uuid, name, data.current(), components, profiles);
+        }
+
+        private static Entry fromSaved(UUID uuid, NBTTagCompound switchyNbt) {
+            List<String> components = new ArrayList<>();
+            NBTTagList componentTypes = switchyNbt.getTagList("componentTypes", 8);
+            for (int i = 0; i < componentTypes.tagCount(); i++) {
+                components.add(componentTypes.getStringTagAt(i));
+            }
+            SwitchyItemPool itemPool = SwitchyItemPool.fromNBT(switchyNbt.getCompoundTag("items"));
+            Map<String, Long> profiles = new LinkedHashMap<>();
+            NBTTagCompound profilesNbt = switchyNbt.getCompoundTag("profiles");
+            for (String profileId : profilesNbt.getKeySet()) {
+                NBTTagCompound componentsNbt = profilesNbt.getCompoundTag(profileId).getCompoundTag("components");
+                if (itemPool.size() > 0) componentsNbt = itemPool.expand(componentsNbt, new ArrayList<>());
+                profiles.put(profileId, NBTSizes.sizeOf(componentsNbt));
+            }
+            return new Entry(uuid, "", switchyNbt.getString("current"), components, profiles);
+        }
+
+        private static Entry fromNBT(UUID uuid, NBTTagCompound nbt) {
+            List<String> components = new ArrayList<>();
+            NBTTagList componentsList = nbt.getTagList("components", 8);
+            for (int i = 0; i < componentsList.tagCount(); i++) {
+                components.add(componentsList.getStringTagAt(i));
+            }
+            Map<String, Long> profiles = new LinkedHashMap<>();
+            NBTTagCompound profilesNbt = nbt.getCompoundTag("profiles");
+            for (String profileId : profilesNbt.getKeySet()) {
+                profiles.put(profileId, profilesNbt.getLong(profileId));
+            }
+            return new Entry(uuid, nbt.getString("name"), nbt.getString("current"), components, profiles);
+        }
+
+        private NBTTagCompound toNBT() {
+            NBTTagCompound nbt = new NBTTagCompound();
+            nbt.setString("name", name);
+            nbt.setString("current", current);
+            NBTTagList componentsList = new NBTTagList();
+            for (String component : components) {
+                componentsList.appendTag(new NBTTagString(component));
+            }
+            nbt.setTag("components", componentsList);
+            NBTTagCompound profilesNbt = new NBTTagCompound();
+            for (Map.Entry<String, Long> profile : profiles.entrySet()) {
+                profilesNbt.setLong(profile.getKey(), profile.getValue());
+            }
+            nbt.setTag("profiles", profilesNbt);
+            return nbt;
+        }
+
+        private Entry withName(String name) {
+            return new Entry(uuid, name, current, components, profiles);
+        }
+
+        public UUID uuid() {
+            return uuid;
+        }
+
+        public String name() {
+            return name.isEmpty() ? uuid.toString() : name;
+        }
+
+        public String current() {
+            return current;
+        }
+
+        public List<String> components() {
+            return components;
+        }
+
+        public Map<String, Long> profiles() {
+            return profiles;
+        }
+
+        public long totalSize() {
+            return profiles.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry other = (Entry) o;
+            return uuid.equals(other.uuid) && name.equals(other.name) && current.equals(other.current)
+                && components.equals(other.components) && profiles.equals(other.profiles);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uuid, name, current, components, profiles);
+        }
+    }
+}
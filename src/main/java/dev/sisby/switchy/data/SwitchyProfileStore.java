@@ -0,0 +1,123 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.SwitchyConfig;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.UUID;
+
+public class SwitchyProfileStore {
+    public static final String DIRECTORY = "switchy";
+    private static final String POINTER_KEY = "storage";
+    private static final String POINTER_SEPARATE = "separate";
+    private static final SwitchyProfileWriter WRITER = new SwitchyProfileWriter();
+
+    public static File directory(File worldDirectory) {
+        return new File(worldDirectory, DIRECTORY);
+    }
+
+    public static File directory(MinecraftServer server) {
+        return directory(server.getWorld(0).getSaveHandler().getWorldDirectory());
+    }
+
+    public static File file(File directory, UUID uuid) {
+        return new File(directory, uuid.toString() + ".dat");
+    }
+
+    public static NBTTagCompound pointer(String current) {
+        NBTTagCompound switchyNbt = new NBTTagCompound();
+        switchyNbt.setString(POINTER_KEY, POINTER_SEPARATE);
+        switchyNbt.setString("current", current);
+        return switchyNbt;
+    }
+
+    public static boolean isPointer(NBTTagCompound switchyNbt) {
+        return POINTER_SEPARATE.equals(switchyNbt.getString(POINTER_KEY));
+    }
+
+    // the snapshot is taken here on the main thread; compression and disk I/O happen on the writer thread
+    public static void save(File directory, UUID uuid, SwitchyPlayerData data) {
+        long revision = SwitchyComponentMap.currentRevision();
+        NBTTagCompound nbt = new NBTTagCompound();
+        data.writeFullNbt(nbt);
+        data.markStored(revision);
+        WRITER.submit(file(directory, uuid), nbt, data, revision);
+    }
+
+    // world-level files that ride the same writer, such as the profile index
+    public static void write(File target, NBTTagCompound nbt) {
+        WRITER.submit(target, nbt, null, 0);
+    }
+
+    // writes a player file and its profile store directly, for admin tools working on players who aren't online
+    static void writeOffline(File playerFile, File directory, UUID uuid, NBTTagCompound playerNbt, SwitchyPlayerData data) throws IOException {
+        playerNbt.removeTag(Switchy.ID);
+        // the store goes first so the player file never points at a store that isn't there
+        if (SwitchyConfig.storage == SwitchyConfig.Storage.SEPARATE && data.size() > 1) {
+            long revision = SwitchyComponentMap.currentRevision();
+            NBTTagCompound full = new NBTTagCompound();
+            data.writeFullNbt(full);
+            SwitchyProfileWriter.writeAtomically(file(directory, uuid), SwitchyConfig.compactCodec ? SwitchyCompactCodec.compactPlayerNbt(full) : full);
+            data.markStored(revision);
+            data.markWritten(revision);
+        }
+        data.writeNbt(playerNbt);
+        SwitchyProfileWriter.writeAtomically(playerFile, SwitchyCompactCodec.compactPlayerFile(playerNbt));
+    }
+
+    public static void flush() {
+        WRITER.flush();
+    }
+
+    public static void afterWrites(Runnable task) {
+        WRITER.afterPending(task);
+    }
+
+    public static long failures() {
+        return WRITER.failures();
+    }
+
+    @Nullable
+    public static SwitchyPlayerData load(EntityPlayerMP player) {
+        File target = file(directory(player.getServerWorld().getMinecraftServer()), player.getUniqueID());
+        NBTTagCompound pending = WRITER.pending(target);
+        if (pending != null) {
+            // a relog before the writer caught up; the queued snapshot is newer than the file
+            SwitchyPlayerData data = SwitchyPlayerData.fromNbt(pending);
+            data.markUnstored();
+            return data;
+        }
+        if (!target.isFile()) {
+            Switchy.LOGGER.error("[Switchy] Player file for {} points to missing profile store {}! Their other profiles are NOT loaded", player.getGameProfile().getName(), target);
+            return null;
+        }
+        SwitchyPlayerData data;
+        try (InputStream in = new FileInputStream(target)) {
+            data = SwitchyPlayerData.fromNbt(CompressedStreamTools.readCompressed(in));
+        } catch (IOException | RuntimeException e) {
+            // the unreadable store is moved aside before anything can overwrite it; if it can't be moved, the load fails
+            File backup = new File(target.getParentFile(), target.getName() + "." + System.currentTimeMillis() + ".broken");
+            try {
+                Files.move(target.toPath(), backup.toPath());
+            } catch (IOException moveException) {
+                e.addSuppressed(moveException);
+                throw new RuntimeException("Failed to read profile store " + target + " and couldn't move it aside!", e);
+            }
+            Switchy.LOGGER.error("[Switchy] Failed to read profile store for {}! Moved it to {} - their profiles are NOT loaded and must be restored from that file", player.getGameProfile().getName(), backup, e);
+            return null;
+        }
+        long revision = SwitchyComponentMap.currentRevision();
+        data.markStored(revision);
+        data.markWritten(revision);
+        return data;
+    }
+}
@@ -0,0 +1,121 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.SwitchyConfig;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SwitchyProfileWriter {
+    // latest snapshot per file; an entry stays until that exact snapshot is on disk
+    private final Map<File, Snapshot> pending = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+    private final AtomicLong failures = new AtomicLong();
+
+    public synchronized void submit(File target, NBTTagCompound nbt, @Nullable SwitchyPlayerData data, long revision) {
+        pending.put(target, new Snapshot(nbt, data, revision));
+        executor().execute(() -> write(target));
+    }
+
+    // runs on the writer thread once every write submitted before it has finished
+    public void afterPending(Runnable task) {
+        executor().execute(task);
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    @Nullable
+    public NBTTagCompound pending(File target) {
+        Snapshot snapshot = pending.get(target);
+        return snapshot != null ? snapshot.nbt : null;
+    }
+
+    public void flush() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor == null) return;
+        try {
+            executor.submit(() -> {}).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Switchy.LOGGER.error("[Switchy] Failed to flush profile writer", e);
+        }
+        if (!pending.isEmpty()) {
+            Switchy.LOGGER.warn("[Switchy] {} profile stores were left unwritten after flushing", pending.size());
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Switchy Profile Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private void write(File target) {
+        Snapshot snapshot = pending.get(target);
+        if (snapshot == null) return; // an earlier task already wrote the latest snapshot
+        try {
+            writeAtomically(target, SwitchyConfig.compactCodec ? SwitchyCompactCodec.compactPlayerNbt(snapshot.nbt) : snapshot.nbt);
+            if (snapshot.data != null) snapshot.data.markWritten(snapshot.revision);
+        } catch (IOException e) {
+            Switchy.LOGGER.error("[Switchy] Failed to write {}", target, e);
+            failures.incrementAndGet();
+            if (snapshot.data != null) snapshot.data.markUnstored();
+        }
+        pending.remove(target, snapshot);
+    }
+
+    static void writeAtomically(File target, NBTTagCompound nbt) throws IOException {
+        File directory = target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory);
+        }
+        // vanilla's SaveHandler writes <uuid>.dat.tmp next to player files, so ours must not share that name
+        File temp = new File(directory, target.getName() + ".switchy.tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            CompressedStreamTools.writeCompressed(nbt, out);
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class Snapshot {
+        private final NBTTagCompound nbt;
+        @Nullable
+        private final SwitchyPlayerData data;
+        private final long revision;
+
+        private Snapshot(NBTTagCompound nbt, @Nullable SwitchyPlayerData data, long revision) {
+            this.nbt = nbt;
+            this.data = data;
+            this.revision = revision;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.duck.SwitchyPlayer;
+import dev.sisby.switchy.exception.NbtException;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraft.server.MinecraftServer;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// Point-in-time copies of every player's profiles. Each profile is stored once as a chunk named by the hash of its
+// saved form, and a snapshot is a manifest of player -> profile -> chunk, so unchanged profiles cost nothing to snapshot again.
+public class SwitchySnapshots {
+    public static final String DIRECTORY = "snapshots";
+    private static final String CHUNKS = "chunks";
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    // chunk hashes of profiles already snapshotted, valid while the map's revision and the profile id match
+    private static final Map<SwitchyComponentMap, Hashed> HASHES = Collections.synchronizedMap(new WeakHashMap<>());
+    private static volatile boolean running;
+
+    public static File directory(MinecraftServer server) {
+        return new File(SwitchyProfileStore.directory(server), DIRECTORY);
+    }
+
+    public static boolean isValidName(String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    public static boolean exists(MinecraftServer server, String name) {
+        return manifest(directory(server), name).isFile();
+    }
+
+    public static List<String> list(MinecraftServer server) {
+        File[] manifests = directory(server).listFiles((dir, name) -> name.endsWith(".dat"));
+        if (manifests == null) return Collections.emptyList();
+        return Arrays.stream(manifests)
+            .sorted(Comparator.comparingLong(File::lastModified))
+            .map(file -> file.getName().substring(0, file.getName().length() - 4))
+            .collect(Collectors.toList());
+    }
+
+    // online players are captured here on the main thread; hashing, chunk writes and offline players happen on a worker
+    public static boolean create(MinecraftServer server, String name, Consumer<Result> done) {
+        if (running) return false;
+        running = true;
+        File worldDirectory = server.getWorld(0).getSaveHandler().getWorldDirectory();
+        File directory = directory(server);
+        Map<UUID, Captured> online = new HashMap<>();
+        for (EntityPlayerMP player : server.getPlayerList().getPlayers()) {
+            SwitchyPlayerData data = SwitchyPlayerData.ofEarly(player);
+            if (data == null || data.size() <= 1) continue;
+            try {
+                online.put(player.getUniqueID(), capture(player, data));
+            } catch (NbtException e) {
+                Switchy.LOGGER.error("[Switchy] Failed to capture {} for snapshot {}", player.getGameProfile().getName(), name, e);
+            }
+        }
+
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            Result result = new Result(name);
+            try {
+                write(worldDirectory, directory, name, online, result);
+            } catch (IOException | RuntimeException e) {
+                Switchy.LOGGER.error("[Switchy] Failed to write snapshot {}", name, e);
+                result.error = e.getMessage();
+            }
+            result.nanos = System.nanoTime() - start;
+            server.addScheduledTask(() -> {
+                running = false;
+                done.accept(result);
+            });
+        }, "Switchy Snapshot");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private static Captured capture(EntityPlayerMP player, SwitchyPlayerData data) throws NbtException {
+        // brings the current profile up to date with the live player
+        data.getCurrentProfile(player);
+        Captured captured = new Captured(player.getGameProfile().getName(), header(data));
+        for (SwitchyProfile profile : data.values()) {
+            SwitchyComponentMap components = profile.components();
+            Hashed hashed = HASHES.get(components);
+            String hash = hashed != null && hashed.revision == components.revision() && hashed.id.equals(profile.id()) ? hashed.hash : null;
+            captured.profiles.put(profile.id(), new Pending(components, components.revision(), profile.toNBT(SwitchyComponentTypes.instance()), hash));
+        }
+        return captured;
+    }
+
+    private static NBTTagCompound header(SwitchyPlayerData data) {
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setString("current", data.current());
+        data.greeting().ifPresent(greeting -> nbt.setString("greeting", greeting.getUnformattedText()));
+        NBTTagList componentTypes = new NBTTagList();
+        for (SwitchyComponentType<?> type : data.componentSet()) {
+            String key = SwitchyComponentTypes.instance().key(type);
+            if (key != null) componentTypes.appendTag(new NBTTagString(key));
+        }
+        nbt.setTag("componentTypes", componentTypes);
+        return nbt;
+    }
+
+    private static void write(File worldDirectory, File directory, String name, Map<UUID, Captured> online, Result result) throws IOException {
+        // offline players' stores should be on disk before they're read
+        SwitchyProfileStore.flush();
+        File chunks = new File(directory, CHUNKS);
+        Map<String, Boolean> written = new ConcurrentHashMap<>();
+        NBTTagCompound previous = latestManifest(directory);
+        NBTTagCompound previousPlayers = previous != null ? previous.getCompoundTag("players") : new NBTTagCompound();
+        Map<String, NBTTagCompound> players = new ConcurrentHashMap<>();
+
+        for (Map.Entry<UUID, Captured> entry : online.entrySet()) {
+            Captured captured = entry.getValue();
+            NBTTagCompound player = captured.header.copy();
+            player.setString("name", captured.name);
+            NBTTagCompound profiles = new NBTTagCompound();
+            for (Map.Entry<String, Pending> profile : captured.profiles.entrySet()) {
+                Pending pending = profile.getValue();
+                String hash;
+                // unchanged since the last snapshot, so only hashed again if its chunk has gone missing
+                if (pending.hash != null && chunk(chunks, pending.hash).isFile()) {
+                    hash = pending.hash;
+                    result.profiles.incrementAndGet();
+                } else {
+                    hash = writeChunk(chunks, pending.nbt, written, result);
+                    HASHES.put(pending.components, new Hashed(profile.getKey(), pending.revision, hash));
+                }
+                profiles.setString(profile.getKey(), hash);
+            }
+            player.setTag("profiles", profiles);
+            players.put(entry.getKey().toString(), player);
+        }
+
+        File[] files = new File(worldDirectory, "playerdata").listFiles((dir, file) -> file.endsWith(".dat"));
+        File storeDirectory = SwitchyProfileStore.directory(worldDirectory);
+        if (files != null) {
+            Arrays.stream(files).parallel().forEach(file -> {
+                String uuid = file.getName().substring(0, file.getName().length() - 4);
+                if (players.containsKey(uuid)) return;
+                try {
+                    NBTTagCompound player = offline(file, storeDirectory, UUID.fromString(uuid), previousPlayers.getCompoundTag(uuid), chunks, written, result);
+                    if (player != null) players.put(uuid, player);
+                } catch (IOException | RuntimeException e) {
+                    Switchy.LOGGER.warn("[Switchy] Skipping unreadable player file {} in snapshot {}: {}", file.getName(), name, e.getMessage());
+                }
+            });
+        }
+
+        NBTTagCompound playersNbt = new NBTTagCompound();
+        for (Map.Entry<String, NBTTagCompound> player : players.entrySet()) {
+            playersNbt.setTag(player.getKey(), player.getValue());
+        }
+        NBTTagCompound manifest = new NBTTagCompound();
+        manifest.setLong("created", System.currentTimeMillis());
+        manifest.setTag("players", playersNbt);
+        SwitchyProfileWriter.writeAtomically(manifest(directory, name), manifest);
+        result.players = players.size();
+    }
+
+    @Nullable
+    private static NBTTagCompound offline(File playerFile, File storeDirectory, UUID uuid, NBTTagCompound previous, File chunks, Map<String, Boolean> written, Result result) throws IOException {
+        File store = SwitchyProfileStore.file(storeDirectory, uuid);
+        long modified = Math.max(playerFile.lastModified(), store.isFile() ? store.lastModified() : 0);
+        // untouched since the last snapshot, so its chunks are all already there
+        if (previous.hasKey("modified", 4) && previous.getLong("modified") == modified) {
+            result.reused.incrementAndGet();
+            result.profiles.addAndGet(previous.getCompoundTag("profiles").getSize());
+            return previous;
+        }
+
+        NBTTagCompound playerNbt = read(playerFile);
+        if (!playerNbt.hasKey(Switchy.ID, 10)) return null;
+        NBTTagCompound switchyNbt = playerNbt.getCompoundTag(Switchy.ID);
+        if (SwitchyProfileStore.isPointer(switchyNbt)) {
+            if (!store.isFile()) return null;
+            switchyNbt = read(store).getCompoundTag(Switchy.ID);
+        }
+        switchyNbt = SwitchyCompactCodec.expand(switchyNbt);
+
+        NBTTagCompound player = new NBTTagCompound();
+        player.setString("current", switchyNbt.getString("current"));
+        if (switchyNbt.hasKey("greeting", 8)) player.setString("greeting", switchyNbt.getString("greeting"));
+        player.setTag("componentTypes", switchyNbt.getTagList("componentTypes", 8));
+        player.setLong("modified", modified);
+        if (previous.hasKey("name", 8)) player.setString("name", previous.getString("name"));
+
+        SwitchyItemPool itemPool = SwitchyItemPool.fromNBT(switchyNbt.getCompoundTag("items"));
+        NBTTagCompound profiles = new NBTTagCompound();
+        NBTTagCompound profilesNbt = switchyNbt.getCompoundTag("profiles");
+        for (String profileId : profilesNbt.getKeySet()) {
+            NBTTagCompound profileNbt = profilesNbt.getCompoundTag(profileId);
+            if (itemPool.size() > 0) {
+                NBTTagCompound expanded = new NBTTagCompound();
+                expanded.setString("id", profileNbt.getString("id"));
+                expanded.setTag("components", itemPool.expand(profileNbt.getCompoundTag("components"), new ArrayList<>()));
+                profileNbt = expanded;
+            }
+            profiles.setString(profileId, writeChunk(chunks, profileNbt, written, result));
+        }
+        player.setTag("profiles", profiles);
+        return player;
+    }
+
+    private static String writeChunk(File chunks, NBTTagCompound profileNbt, Map<String, Boolean> written, Result result) throws IOException {
+        String hash = SwitchyItemPool.hash(profileNbt);
+        result.profiles.incrementAndGet();
+        File chunk = chunk(chunks, hash);
+        // the same profile can turn up on several threads at once, e.g. untouched default profiles
+        if (written.putIfAbsent(hash, Boolean.TRUE) == null && !chunk.isFile()) {
+            SwitchyProfileWriter.writeAtomically(chunk, profileNbt);
+            result.chunks.incrementAndGet();
+            result.bytes.addAndGet(chunk.length());
+        }
+        return hash;
+    }
+
+    // reads the manifest and only the chunks of that one player
+    @Nullable
+    public static Restored restore(MinecraftServer server, String name, String player) throws IOException, NbtException {
+        File directory = directory(server);
+        File manifestFile = manifest(directory, name);
+        if (!manifestFile.isFile()) return null;
+        NBTTagCompound players = read(manifestFile).getCompoundTag("players");
+        String key = findPlayer(players, player);
+        if (key == null) return null;
+        UUID uuid = UUID.fromString(key);
+        NBTTagCompound entry = players.getCompoundTag(key);
+
+        NBTTagCompound switchyNbt = new NBTTagCompound();
+        switchyNbt.setString("current", entry.getString("current"));
+        if (entry.hasKey("greeting", 8)) switchyNbt.setString("greeting", entry.getString("greeting"));
+        switchyNbt.setTag("componentTypes", entry.getTagList("componentTypes", 8));
+        NBTTagCompound profiles = new NBTTagCompound();
+        NBTTagCompound hashes = entry.getCompoundTag("profiles");
+        File chunks = new File(directory, CHUNKS);
+        for (String profileId : hashes.getKeySet()) {
+            profiles.setTag(profileId, read(chunk(chunks, hashes.getString(profileId))));
+        }
+        switchyNbt.setTag("profiles", profiles);
+        NBTTagCompound root = new NBTTagCompound();
+        root.setTag(Switchy.ID, switchyNbt);
+        SwitchyPlayerData data = SwitchyPlayerData.fromNbt(root);
+
+        EntityPlayerMP online = server.getPlayerList().getPlayerByUUID(uuid);
+        String playerName = entry.hasKey("name", 8) ? entry.getString("name") : key;
+        if (online != null) {
+            ((SwitchyPlayer) online).switchy$setPlayerData(data);
+            data.applyCurrent(online);
+            playerName = online.getGameProfile().getName();
+        } else {
+            File worldDirectory = server.getWorld(0).getSaveHandler().getWorldDirectory();
+            File playerFile = new File(new File(worldDirectory, "playerdata"), key + ".dat");
+            if (!playerFile.isFile()) throw new IOException("No player file for " + playerName);
+            SwitchyProfileStore.flush();
+            NBTTagCompound playerNbt = read(playerFile);
+            data.applyCurrent(playerNbt);
+            try {
+                SwitchyProfileStore.writeOffline(playerFile, SwitchyProfileStore.directory(worldDirectory), uuid, playerNbt, data);
+                Switchy.INDEX.update(uuid, entry.getString("name"), data);
+            } finally {
+                data.release();
+            }
+        }
+        Switchy.LOGGER.info("[Switchy] Restored {} profiles of {} from snapshot {}", profiles.getSize(), playerName, name);
+        return new Restored(playerName, profiles.getSize(), online != null);
+    }
+
+    @Nullable
+    private static String findPlayer(NBTTagCompound players, String player) {
+        if (players.hasKey(player, 10)) return player;
+        for (String key : players.getKeySet()) {
+            if (players.getCompoundTag(key).getString("name").equalsIgnoreCase(player)) return key;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static NBTTagCompound latestManifest(File directory) throws IOException {
+        File[] manifests = directory.listFiles((dir, name) -> name.endsWith(".dat"));
+        if (manifests == null || manifests.length == 0) return null;
+        return read(Collections.max(Arrays.asList(manifests), Comparator.comparingLong(File::lastModified)));
+    }
+
+    private static File manifest(File directory, String name) {
+        return new File(directory, name + ".dat");
+    }
+
+    private static File chunk(File chunks, String hash) {
+        return new File(new File(chunks, hash.substring(0, 2)), hash + ".dat");
+    }
+
+    private static NBTTagCompound read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return CompressedStreamTools.readCompressed(in);
+        }
+    }
+
+    private static class Captured {
+        private final String name;
+        private final NBTTagCompound header;
+        private final Map<String, Pending> profiles = new LinkedHashMap<>();
+
+        private Captured(String name, NBTTagCompound header) {
+            this.name = name;
+            this.header = header;
+        }
+    }
+
+    private static class Pending {
+        private final SwitchyComponentMap components;
+        private final long revision;
+        private final NBTTagCompound nbt;
+        @Nullable
+        private final String hash;
+
+        private Pending(SwitchyComponentMap components, long revision, NBTTagCompound nbt, @Nullable String hash) {
+            this.components = components;
+            this.revision = revision;
+            this.nbt = nbt;
+            this.hash = hash;
+        }
+    }
+
+    private static class Hashed {
+        private final String id;
+        private final long revision;
+        private final String hash;
+
+        private Hashed(String id, long revision, String hash) {
+            this.id = id;
+            this.revision = revision;
+            this.hash = hash;
+        }
+    }
+
+    public static class Restored {
+        private final String player;
+        private final int profiles;
+        private final boolean online;
+
+        private Restored(String player, int profiles, boolean online) {
+            this.player = player;
+            this.profiles = profiles;
+            this.online = online;
+        }
+
+        public String player() {
+            return player;
+        }
+
+        public int profiles() {
+            return profiles;
+        }
+
+        public boolean online() {
+            return online;
+        }
+    }
+
+    public static class Result {
+        private final String name;
+        private final AtomicInteger profiles = new AtomicInteger();
+        private final AtomicInteger chunks = new AtomicInteger();
+        private final AtomicInteger reused = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile int players;
+        private volatile long nanos;
+        @Nullable
+        private volatile String error;
+
+        private Result(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int players() {
+            return players;
+        }
+
+        public int profiles() {
+            return profiles.get();
+        }
+
+        public int chunks() {
+            return chunks.get();
+        }
+
+        // offline players whose files hadn't changed since the previous snapshot
+        public int reused() {
+            return reused.get();
+        }
+
+        public long bytes() {
+            return bytes.get();
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        @Nullable
+        public String error() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+public class SwitchyStagedProfile {
+    private final SwitchyProfile profile;
+    private final long revision;
+    private final Map<SwitchyComponentType<?>, NBTBase> fragments = new HashMap<>();
+
+    private SwitchyStagedProfile(SwitchyProfile profile, long revision, NBTTagCompound stored, SwitchyComponentTypes types) {
+        this.profile = profile;
+        this.revision = revision;
+        NBTTagCompound versions = stored.getCompoundTag(SwitchyComponentMap.VERSIONS);
+        for (String key : stored.getKeySet()) {
+            if (key.equals(SwitchyComponentMap.VERSIONS)) continue;
+            SwitchyComponentType<?> type = types.get(key);
+            // values saved at an older schema are upgraded on the main thread as they're decoded
+            if (type == null || versions.getInteger(key) < type.schemaVersion()) continue;
+            try {
+                NBTBase fragment = type.tryStage(stored.getTag(key));
+                if (fragment != null) fragments.put(type, fragment);
+            } catch (Exception e) {
+                // leave it to the main thread, which will hit the same problem and report it properly
+                Switchy.LOGGER.debug("[Switchy] Failed to stage {} for profile {}", type.id(), profile.id(), e);
+            }
+        }
+    }
+
+    // main thread only - live values are serialized here, so only saved NBT is read on the executor
+    public static CompletableFuture<SwitchyStagedProfile> stage(SwitchyProfile profile, Executor executor) {
+        SwitchyComponentTypes types = SwitchyComponentTypes.instance();
+        long revision = profile.components().revision();
+        Supplier<NBTTagCompound> stored = profile.components().storedForm(types);
+        return CompletableFuture.supplyAsync(() -> new SwitchyStagedProfile(profile, revision, stored.get(), types), executor);
+    }
+
+    // null if nothing was staged for this component or the profile changed since it was staged
+    @Nullable
+    public NBTBase fragment(SwitchyComponentType<?> type, SwitchyProfile target) {
+        if (target != profile || target.components().revision() != revision) return null;
+        return fragments.get(type);
+    }
+}
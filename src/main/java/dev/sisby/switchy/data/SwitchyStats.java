@@ -0,0 +1,63 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SwitchyStats {
+    public enum Phase {
+        CAPTURE("capture"),
+        MUTATE("mutate"),
+        READ_NBT("readFromNBT"),
+        RECAPTURE("recapture"),
+        SYNC("sync"),
+        TOTAL("total");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final Map<Phase, LatencyHistogram> PHASES = new EnumMap<>(Phase.class);
+    private static final Map<SwitchyComponentType<?>, LatencyHistogram> COMPONENTS = new IdentityHashMap<>();
+
+    static {
+        for (Phase phase : Phase.values()) {
+            PHASES.put(phase, new LatencyHistogram());
+        }
+    }
+
+    public static void record(Phase phase, long nanos) {
+        PHASES.get(phase).record(nanos);
+    }
+
+    public static void record(SwitchyComponentType<?> type, long nanos) {
+        COMPONENTS.computeIfAbsent(type, t -> new LatencyHistogram()).record(nanos);
+    }
+
+    public static LatencyHistogram phase(Phase phase) {
+        return PHASES.get(phase);
+    }
+
+    public static List<Map.Entry<SwitchyComponentType<?>, LatencyHistogram>> slowestComponents(int limit) {
+        List<Map.Entry<SwitchyComponentType<?>, LatencyHistogram>> entries = new ArrayList<>(COMPONENTS.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<SwitchyComponentType<?>, LatencyHistogram> e) -> e.getValue().percentile(95)).reversed());
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    public static void reset() {
+        PHASES.values().forEach(LatencyHistogram::reset);
+        COMPONENTS.values().forEach(LatencyHistogram::reset);
+    }
+}
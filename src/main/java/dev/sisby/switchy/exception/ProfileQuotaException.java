@@ -0,0 +1,17 @@
+package dev.sisby.switchy.exception;
+
+import dev.sisby.switchy.util.FormatUtils;
+
+public class ProfileQuotaException extends IllegalArgumentException {
+    private ProfileQuotaException(String message) {
+        super(message);
+    }
+
+    public static ProfileQuotaException profiles(int limit) {
+        return new ProfileQuotaException(String.format("you can't have more than %d profiles! Delete one first.", limit));
+    }
+
+    public static ProfileQuotaException bytes(long used, long limit) {
+        return new ProfileQuotaException(String.format("your profiles use %s of the %s allowed! Delete one first.", FormatUtils.bytes(used), FormatUtils.bytes(limit)));
+    }
+}
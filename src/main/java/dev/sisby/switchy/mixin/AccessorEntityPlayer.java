@@ -0,0 +1,21 @@
+package dev.sisby.switchy.mixin;
+
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.BlockPos;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(EntityPlayer.class)
+public interface AccessorEntityPlayer {
+    @Accessor("spawnPos")
+    BlockPos switchy$getSpawnPos();
+
+    @Accessor("spawnPos")
+    void switchy$setSpawnPos(BlockPos pos);
+
+    @Accessor("spawnForced")
+    boolean switchy$isSpawnForced();
+
+    @Accessor("spawnForced")
+    void switchy$setSpawnForced(boolean forced);
+}
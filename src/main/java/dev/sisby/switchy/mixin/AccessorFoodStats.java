@@ -0,0 +1,20 @@
+package dev.sisby.switchy.mixin;
+
+import net.minecraft.util.FoodStats;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(FoodStats.class)
+public interface AccessorFoodStats {
+    @Accessor("foodSaturationLevel")
+    float switchy$getSaturation();
+
+    @Accessor("foodSaturationLevel")
+    void switchy$setSaturation(float saturation);
+
+    @Accessor("foodExhaustionLevel")
+    float switchy$getExhaustion();
+
+    @Accessor("foodExhaustionLevel")
+    void switchy$setExhaustion(float exhaustion);
+}
@@ -2,7 +2,9 @@ package dev.sisby.switchy.mixin;
 
 import dev.sisby.switchy.Switchy;
 import dev.sisby.switchy.data.SwitchyPlayerData;
+import dev.sisby.switchy.data.SwitchyProfileStore;
 import dev.sisby.switchy.duck.SwitchyPlayer;
+import dev.sisby.switchy.exception.NbtException;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.text.ITextComponent;
@@ -30,13 +32,14 @@ public class MixinEntityPlayerMP implements SwitchyPlayer {
     public void switchy$startReload() {
         if (switchy$playerData != null) {
             switchy$reloadData = new NBTTagCompound();
-            switchy$playerData.writeNbt(switchy$reloadData);
+            switchy$playerData.writeFullNbt(switchy$reloadData);
         }
     }
 
     @Override
     public void switchy$finishReload() {
         if (switchy$reloadData != null) {
+            if (switchy$playerData != null) switchy$playerData.release();
             switchy$playerData = SwitchyPlayerData.fromNbt(switchy$reloadData);
             switchy$reloadData = null;
         }
@@ -46,7 +49,7 @@ public class MixinEntityPlayerMP implements SwitchyPlayer {
     public void switchy$hotSwap(NBTTagCompound nbt, ITextComponent reason) {
         EntityPlayerMP self = (EntityPlayerMP) (Object) this;
         switchy$hotSwap = nbt;
-        Switchy.LOGGER.info("[Switchy] Queuing hot swap for {} with inventory {} and pos {}", self.getName(), nbt.getTag("Inventory"), nbt.getTag("Pos"));
+        Switchy.LOGGER.debug("[Switchy] Queuing hot swap for {}", self.getName());
         self.connection.disconnect(reason);
     }
 
@@ -69,6 +72,8 @@ public class MixinEntityPlayerMP implements SwitchyPlayer {
 
     @Override
     public void switchy$setPlayerData(SwitchyPlayerData data) {
+        // whatever this replaces is thrown away, so its decoded maps must not stay in the profile cache
+        if (switchy$playerData != null && switchy$playerData != data) switchy$playerData.release();
         switchy$playerData = data;
     }
 
@@ -80,12 +85,43 @@ public class MixinEntityPlayerMP implements SwitchyPlayer {
     @Inject(method = "readEntityFromNBT", at = @At("RETURN"))
     public void readPlayerData(NBTTagCompound nbt, CallbackInfo ci) {
         EntityPlayerMP self = (EntityPlayerMP) (Object) this;
-        if (nbt.hasKey(Switchy.ID, 10)) {
-            switchy$playerData = SwitchyPlayerData.fromNbt(nbt);
-            switchy$playerData.validate(self, nbt);
-        } else if (nbt.hasKey("switchy:presets", 10)) {
-            switchy$playerData = SwitchyPlayerData.create(self, nbt);
-            switchy$playerData.validate(self, nbt);
+        if (nbt.hasKey(Switchy.ID, 10) && SwitchyProfileStore.isPointer(nbt.getCompoundTag(Switchy.ID))) {
+            // data already in memory (e.g. mid-switch) is never older than the store
+            if (switchy$playerData == null) {
+                switchy$playerData = SwitchyProfileStore.load(self);
+                if (switchy$playerData == null) {
+                    // load has already logged the failure and moved any unreadable store aside
+                    switchy$playerData = SwitchyPlayerData.create(self, nbt);
+                }
+                Switchy.JOURNAL.replay(self, switchy$playerData, nbt);
+                // the store can be newer than this file, which names the profile the body was saved in
+                switchy$restoreCurrent(self, nbt, nbt.getCompoundTag(Switchy.ID).getString("current"));
+                switchy$playerData.validate(self, nbt);
+            }
+        } else if (nbt.hasKey(Switchy.ID, 10)) {
+            // likewise, re-reading our own nbt mid-switch would only decode a copy that's thrown away
+            if (switchy$playerData == null) {
+                switchy$playerData = SwitchyPlayerData.fromNbt(nbt);
+                String savedCurrent = switchy$playerData.current();
+                Switchy.JOURNAL.replay(self, switchy$playerData, nbt);
+                switchy$restoreCurrent(self, nbt, savedCurrent);
+                switchy$playerData.validate(self, nbt);
+            }
+        } else {
+            if (switchy$playerData == null) Switchy.JOURNAL.discard(self.getUniqueID());
+            if (nbt.hasKey("switchy:presets", 10)) {
+                switchy$playerData = SwitchyPlayerData.create(self, nbt);
+                switchy$playerData.validate(self, nbt);
+            }
+        }
+    }
+
+    @Unique
+    private void switchy$restoreCurrent(EntityPlayerMP self, NBTTagCompound nbt, String savedCurrent) {
+        try {
+            switchy$playerData.restoreCurrent(self, nbt, savedCurrent);
+        } catch (NbtException e) {
+            Switchy.LOGGER.error("[Switchy] Failed to apply profile {} to {}", switchy$playerData.current(), self.getGameProfile().getName(), e);
         }
     }
 
@@ -1,12 +1,19 @@
 package dev.sisby.switchy.mixin;
 
 import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.SwitchyConfig;
+import dev.sisby.switchy.data.SwitchyCompactCodec;
+import dev.sisby.switchy.data.SwitchyPlayerData;
+import dev.sisby.switchy.data.SwitchyProfileStore;
 import dev.sisby.switchy.duck.SwitchyPlayer;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.storage.SaveHandler;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.ModifyArg;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 @Mixin(SaveHandler.class)
@@ -21,4 +28,27 @@ public abstract class MixinSaveHandler {
             }
         }
     }
+
+    // the only place player nbt goes to disk, so the compact codec runs here rather than on every writeToNBT
+    @ModifyArg(method = "writePlayerData", at = @At(value = "INVOKE", target = "Lnet/minecraft/nbt/CompressedStreamTools;writeCompressed(Lnet/minecraft/nbt/NBTTagCompound;Ljava/io/OutputStream;)V"), index = 0)
+    private NBTTagCompound switchy$compactPlayerFile(NBTTagCompound nbt) {
+        return SwitchyCompactCodec.compactPlayerFile(nbt);
+    }
+
+    @Inject(method = "writePlayerData", at = @At("RETURN"))
+    private void switchy$writeProfileStore(EntityPlayer player, CallbackInfo ci) {
+        if (SwitchyConfig.storage != SwitchyConfig.Storage.SEPARATE || !(player instanceof SwitchyPlayer)) return;
+        SwitchyPlayerData data = ((SwitchyPlayer) player).switchy$getPlayerData();
+        if (data != null && data.size() > 1 && data.hasUnstoredChanges()) {
+            SwitchyProfileStore.save(SwitchyProfileStore.directory(((SaveHandler) (Object) this).getWorldDirectory()), player.getUniqueID(), data);
+        }
+    }
+
+    // writeToNBT also runs for hot swaps, dimension changes and commands; only real saves need to reach the index
+    @Inject(method = "writePlayerData", at = @At("RETURN"))
+    private void switchy$updateIndex(EntityPlayer player, CallbackInfo ci) {
+        if (!(player instanceof SwitchyPlayer)) return;
+        SwitchyPlayerData data = ((SwitchyPlayer) player).switchy$getPlayerData();
+        if (data != null) Switchy.INDEX.update((EntityPlayerMP) player, data);
+    }
 }
@@ -12,7 +12,6 @@ import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.util.text.event.HoverEvent;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.text.WordUtils;
 
 import java.text.NumberFormat;
 import java.util.List;
@@ -22,13 +21,24 @@ import java.util.stream.Collectors;
 public class FormatUtils {
     @SuppressWarnings("deprecation")
     public static String prettify(String s) {
-        return WordUtils.capitalize(s.replace("_", " "));
+        // qualified, since importing a deprecated class warns outside the suppression
+        return org.apache.commons.lang3.text.WordUtils.capitalize(s.replace("_", " "));
     }
 
     public static ITextComponent statText(float f) {
         return new TextComponentString(NumberFormat.getNumberInstance(Locale.ROOT).format(Math.ceil(f) / 2F));
     }
 
+    public static String duration(long nanos) {
+        return String.format(Locale.ROOT, "%.3fms", nanos / 1_000_000.0);
+    }
+
+    public static String bytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
     public static ITextComponent inventoryText(NonNullList<ItemStack> inventory) {
         if (inventory == null || inventory.stream().allMatch(ItemStack::isEmpty)) {
             TextComponentString text = new TextComponentString("(empty)");
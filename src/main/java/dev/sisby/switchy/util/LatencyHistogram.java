@@ -0,0 +1,68 @@
+package dev.sisby.switchy.util;
+
+import java.util.Arrays;
+
+public class LatencyHistogram {
+    // log-linear buckets: values below 8ns are exact, then every power of two is split into 8 sub-buckets
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[index(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public long mean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    public long percentile(double percentile) {
+        if (count == 0) return 0;
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(target, 1)) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long lower = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -94,15 +94,17 @@ public class NBTSerializers {
         }
     };
 
+    // component values and saved compounds are both treated as immutable, so the tag is shared rather than copied;
+    // NbtSwitcher copies it where it meets the player's own NBT
     public static final SwitchyComponentType.NBTSerializer<NBTBase> NBT = new SwitchyComponentType.NBTSerializer<NBTBase>() {
         @Override
         public NBTBase toNBT(NBTBase value) {
-            return value.copy();
+            return value;
         }
 
         @Override
         public NBTBase fromNBT(NBTBase nbt) {
-            return nbt.copy();
+            return nbt;
         }
     };
 
@@ -116,6 +118,8 @@ public class NBTSerializers {
                     NBTTagCompound itemNBT = new NBTTagCompound();
                     itemNBT.setByte("Slot", (byte) i);
                     stack.writeToNBT(itemNBT);
+                    // writeToNBT hands over the stack's own tag compound, which the game keeps changing
+                    if (itemNBT.hasKey("tag", 10)) itemNBT.setTag("tag", itemNBT.getCompoundTag("tag").copy());
                     list.appendTag(itemNBT);
                 }
             }
@@ -130,7 +134,8 @@ public class NBTSerializers {
                 NBTTagCompound itemNBT = list.getCompoundTagAt(i);
                 int slot = itemNBT.getByte("Slot") & 255;
                 if (slot >= 0 && slot < inventory.size()) {
-                    inventory.set(slot, new ItemStack(itemNBT));
+                    // the stack adopts its tag compound, which may be pooled and shared with other profiles
+                    inventory.set(slot, new ItemStack(itemNBT.copy()));
                 }
             }
             return inventory;
@@ -0,0 +1,54 @@
+package dev.sisby.switchy.util;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+
+import java.nio.charset.StandardCharsets;
+
+public class NBTSizes {
+    // uncompressed size of the tag's payload in the NBT binary format, without serializing it
+    public static long sizeOf(NBTBase tag) {
+        switch (tag.getId()) {
+            case 1:
+                return 1;
+            case 2:
+                return 2;
+            case 3:
+            case 5:
+                return 4;
+            case 4:
+            case 6:
+                return 8;
+            case 7:
+                return 4 + ((NBTTagByteArray) tag).getByteArray().length;
+            case 8:
+                return stringSize(((NBTTagString) tag).getString());
+            case 9:
+                NBTTagList list = (NBTTagList) tag;
+                long listSize = 5;
+                for (int i = 0; i < list.tagCount(); i++) {
+                    listSize += sizeOf(list.get(i));
+                }
+                return listSize;
+            case 10:
+                NBTTagCompound compound = (NBTTagCompound) tag;
+                long compoundSize = 1;
+                for (String key : compound.getKeySet()) {
+                    compoundSize += 1 + stringSize(key) + sizeOf(compound.getTag(key));
+                }
+                return compoundSize;
+            case 11:
+                return 4 + 4L * ((NBTTagIntArray) tag).getIntArray().length;
+            default:
+                return 8;
+        }
+    }
+
+    private static long stringSize(String s) {
+        return 2 + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -2,14 +2,20 @@ package dev.sisby.switchy.util;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableMap;
 import net.minecraft.util.ResourceLocation;
 
+import javax.annotation.Nullable;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 
 public abstract class TypeRegistry<T extends TypeRegistry.Type> {
     private final BiMap<ResourceLocation, T> map = HashBiMap.create();
+    // string ids as they're saved, so frozen lookups don't parse a ResourceLocation per key
+    private Map<String, T> byKey = Collections.emptyMap();
+    private boolean frozen;
 
     public boolean contains(ResourceLocation id) {
         return map.containsKey(id);
@@ -23,6 +29,13 @@ public abstract class TypeRegistry<T extends TypeRegistry.Type> {
         return map.get(id);
     }
 
+    @Nullable
+    public T get(String id) {
+        // once frozen, only ids in their saved form resolve; a miss is just an unknown type
+        if (frozen) return byKey.get(id);
+        return map.get(new ResourceLocation(id));
+    }
+
     public ResourceLocation id(T type) {
         return map.inverse().get(type);
     }
@@ -35,7 +48,24 @@ public abstract class TypeRegistry<T extends TypeRegistry.Type> {
         return Collections.unmodifiableSet(map.values());
     }
 
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    public void freeze() {
+        if (frozen) return;
+        ImmutableMap.Builder<String, T> keys = ImmutableMap.builder();
+        for (Map.Entry<ResourceLocation, T> entry : map.entrySet()) {
+            keys.put(entry.getKey().toString(), entry.getValue());
+        }
+        byKey = keys.build();
+        frozen = true;
+    }
+
     public <B extends T> B registerType(ResourceLocation id, Function<ResourceLocation, B> typeSupplier) {
+        if (frozen) {
+            throw new IllegalStateException(String.format("Type registered after the registry was frozen: %s", id));
+        }
         B type = typeSupplier.apply(id);
         if (contains(id) || contains(type)) {
             throw new IllegalArgumentException(String.format("Type double-registration with ID: %s", id));
@@ -0,0 +1,144 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import dev.sisby.switchy.SwitchyConfig;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchyCompactCodecTest {
+    private static final String[] COMPONENTS = {"switchy:inventory", "switchy:ender_chest", "switchy:health", "switchy:food_level", "switchy:pos", "switchy:dimension"};
+
+    static NBTTagCompound item(int slot, String id, int count) {
+        NBTTagCompound item = new NBTTagCompound();
+        item.setByte("Slot", (byte) slot);
+        item.setString("id", id);
+        item.setByte("Count", (byte) count);
+        item.setShort("Damage", (short) 0);
+        return item;
+    }
+
+    static NBTTagCompound switchyNbt(int profileCount) {
+        NBTTagCompound switchyNbt = new NBTTagCompound();
+        switchyNbt.setString("current", "profile0");
+        switchyNbt.setString("greeting", "hello");
+        NBTTagList types = new NBTTagList();
+        for (String component : COMPONENTS) {
+            types.appendTag(new NBTTagString(component));
+        }
+        switchyNbt.setTag("componentTypes", types);
+        NBTTagCompound profiles = new NBTTagCompound();
+        for (int p = 0; p < profileCount; p++) {
+            NBTTagCompound components = new NBTTagCompound();
+            NBTTagList inventory = new NBTTagList();
+            for (int slot = 0; slot < 36; slot++) {
+                inventory.appendTag(item(slot, "minecraft:stone", 1 + (slot + p) % 64));
+            }
+            components.setTag("switchy:inventory", inventory);
+            NBTTagList enderChest = new NBTTagList();
+            enderChest.appendTag(item(0, "minecraft:diamond", 3));
+            components.setTag("switchy:ender_chest", enderChest);
+            components.setFloat("switchy:health", 20.0F - p);
+            components.setInteger("switchy:food_level", 20);
+            NBTTagList pos = new NBTTagList();
+            pos.appendTag(new NBTTagDouble(p * 16.5));
+            pos.appendTag(new NBTTagDouble(64));
+            pos.appendTag(new NBTTagDouble(-p * 3.25));
+            components.setTag("switchy:pos", pos);
+            components.setInteger("switchy:dimension", 0);
+            NBTTagCompound profile = new NBTTagCompound();
+            profile.setString("id", "profile" + p);
+            profile.setTag("components", components);
+            profiles.setTag("profile" + p, profile);
+        }
+        switchyNbt.setTag("profiles", profiles);
+        return switchyNbt;
+    }
+
+    static int rawSize(NBTTagCompound nbt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompressedStreamTools.write(nbt, new DataOutputStream(bytes));
+        return bytes.size();
+    }
+
+    static int compressedSize(NBTTagCompound nbt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompressedStreamTools.writeCompressed(nbt, bytes);
+        return bytes.size();
+    }
+
+    @Test
+    public void roundTripsSwitchyData() {
+        NBTTagCompound original = switchyNbt(4);
+        NBTTagCompound compact = SwitchyCompactCodec.compact(original.copy());
+        assertTrue(SwitchyCompactCodec.isCompact(compact));
+        assertEquals(original, SwitchyCompactCodec.expand(compact));
+    }
+
+    @Test
+    public void roundTripsUnknownKeys() {
+        NBTTagCompound original = switchyNbt(1);
+        original.setLong("journal", 42L);
+        original.getCompoundTag("profiles").getCompoundTag("profile0").setString("note", "kept");
+        assertEquals(original, SwitchyCompactCodec.expand(SwitchyCompactCodec.compact(original.copy())));
+    }
+
+    @Test
+    public void roundTripsComponents() {
+        NBTTagCompound components = switchyNbt(1).getCompoundTag("profiles").getCompoundTag("profile0").getCompoundTag("components");
+        assertEquals(components, SwitchyCompactCodec.decodeComponents(SwitchyCompactCodec.encodeComponents(components)));
+    }
+
+    @Test
+    public void expandLeavesPlainDataAlone() {
+        NBTTagCompound plain = switchyNbt(1);
+        assertSame(plain, SwitchyCompactCodec.expand(plain));
+    }
+
+    @Test
+    public void playerFileCompactsOnlyInlineProfiles() {
+        boolean compactCodec = SwitchyConfig.compactCodec;
+        try {
+            SwitchyConfig.compactCodec = true;
+            NBTTagCompound inline = new NBTTagCompound();
+            inline.setTag(Switchy.ID, switchyNbt(2));
+            inline.setFloat("Health", 20.0F);
+            NBTTagCompound written = SwitchyCompactCodec.compactPlayerFile(inline);
+            assertTrue(SwitchyCompactCodec.isCompact(written.getCompoundTag(Switchy.ID)));
+            assertEquals(20.0F, written.getFloat("Health"));
+            // the live nbt is never rewritten in place
+            assertFalse(SwitchyCompactCodec.isCompact(inline.getCompoundTag(Switchy.ID)));
+
+            NBTTagCompound pointer = new NBTTagCompound();
+            pointer.setTag(Switchy.ID, SwitchyProfileStore.pointer("profile0"));
+            assertSame(pointer, SwitchyCompactCodec.compactPlayerFile(pointer));
+
+            SwitchyConfig.compactCodec = false;
+            assertSame(inline, SwitchyCompactCodec.compactPlayerFile(inline));
+        } finally {
+            SwitchyConfig.compactCodec = compactCodec;
+        }
+    }
+
+    // speed is reported on real player data by /switchy admin codec instead
+    @Test
+    public void compactIsSmallerThanPlainNbt() throws IOException {
+        NBTTagCompound plain = switchyNbt(16);
+        NBTTagCompound compact = SwitchyCompactCodec.compact(plain.copy());
+        int plainRaw = rawSize(plain);
+        int compactRaw = rawSize(compact);
+        int plainCompressed = compressedSize(plain);
+        int compactCompressed = compressedSize(compact);
+        assertTrue(compactRaw < plainRaw, "compact " + compactRaw + " bytes, plain " + plainRaw);
+        assertTrue(compactCompressed < plainCompressed, "compressed compact " + compactCompressed + " bytes, plain " + plainCompressed);
+    }
+}
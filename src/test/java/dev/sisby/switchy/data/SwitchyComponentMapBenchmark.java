@@ -0,0 +1,184 @@
+package dev.sisby.switchy.data;
+
+import net.minecraft.util.ResourceLocation;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Memory and get/set cost of component maps, against the HashMap<type, Object> they replaced, under the same workload.
+// Tagged out of the regular test run; use ./gradlew benchmark. Timings are only reported; raise MAPS for steadier numbers.
+@Tag("benchmark")
+public class SwitchyComponentMapBenchmark {
+    private static final int TYPES = 20;
+    private static final int MAPS = 20_000;
+    private static final int ROUNDS = 10;
+
+    private interface Storage<M> {
+        M create();
+
+        Integer get(M map, SwitchyComponentType<Integer> type);
+
+        void set(M map, SwitchyComponentType<Integer> type, Integer value);
+    }
+
+    // how SwitchyComponentMap stored its values before ordinals
+    private static final Storage<Map<SwitchyComponentType<?>, Object>> HASH_MAP = new Storage<Map<SwitchyComponentType<?>, Object>>() {
+        @Override
+        public Map<SwitchyComponentType<?>, Object> create() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public Integer get(Map<SwitchyComponentType<?>, Object> map, SwitchyComponentType<Integer> type) {
+            return (Integer) map.get(type);
+        }
+
+        @Override
+        public void set(Map<SwitchyComponentType<?>, Object> map, SwitchyComponentType<Integer> type, Integer value) {
+            map.put(type, value);
+        }
+    };
+
+    private static final Storage<SwitchyComponentMap> COMPONENT_MAP = new Storage<SwitchyComponentMap>() {
+        @Override
+        public SwitchyComponentMap create() {
+            return SwitchyComponentMap.empty();
+        }
+
+        @Override
+        public Integer get(SwitchyComponentMap map, SwitchyComponentType<Integer> type) {
+            return map.get(type);
+        }
+
+        @Override
+        public void set(SwitchyComponentMap map, SwitchyComponentType<Integer> type, Integer value) {
+            map.set(type, value);
+        }
+    };
+
+    @Test
+    public void componentMapStorage() {
+        SwitchyComponentTypes registry = new SwitchyComponentTypes();
+        List<SwitchyComponentType<Integer>> types = new ArrayList<>();
+        for (int i = 0; i < TYPES; i++) {
+            types.add(registry.registerComponent(new ResourceLocation("switchy_bench", "map/t" + i), b -> b));
+        }
+        // shared boxes, so only the maps themselves are measured
+        Integer[] values = new Integer[TYPES];
+        for (int i = 0; i < TYPES; i++) {
+            values[i] = 1000 + i;
+        }
+
+        // each runs twice and reports the second, so neither pays for the other's warm-up
+        measure("HashMap (before)", HASH_MAP, types, values);
+        measure("SwitchyComponentMap", COMPONENT_MAP, types, values);
+        measure("HashMap (before)", HASH_MAP, types, values).print();
+        measure("SwitchyComponentMap", COMPONENT_MAP, types, values).print();
+    }
+
+    private static <M> Result measure(String name, Storage<M> storage, List<SwitchyComponentType<Integer>> types, Integer[] values) {
+        long before = usedMemory();
+        List<M> maps = new ArrayList<>(MAPS);
+        for (int m = 0; m < MAPS; m++) {
+            M map = storage.create();
+            for (int i = 0; i < TYPES; i++) {
+                storage.set(map, types.get(i), values[i]);
+            }
+            maps.add(map);
+        }
+        long after = usedMemory();
+
+        long sum = 0;
+        long getNanos = 0;
+        long setNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (M map : maps) {
+                for (int i = 0; i < TYPES; i++) {
+                    sum += storage.get(map, types.get(i));
+                }
+            }
+            getNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (M map : maps) {
+                for (int i = 0; i < TYPES; i++) {
+                    storage.set(map, types.get(i), values[(i + round) % TYPES]);
+                }
+            }
+            setNanos = System.nanoTime() - start;
+        }
+
+        long operations = (long) MAPS * TYPES;
+        assertEquals((long) ROUNDS * MAPS * (1000L * TYPES + (TYPES - 1) * TYPES / 2), sum);
+        return new Result(name, (after - before) / MAPS, getNanos / (double) operations, setNanos / (double) operations);
+    }
+
+    @Test
+    public void primitiveSlots() {
+        SwitchyComponentTypes registry = new SwitchyComponentTypes();
+        List<SwitchyComponentType.IntComponentType> types = new ArrayList<>();
+        for (int i = 0; i < TYPES; i++) {
+            types.add(registry.registerIntComponent(new ResourceLocation("switchy_bench", "int/t" + i), b -> b));
+        }
+        SwitchyComponentMap[] maps = new SwitchyComponentMap[MAPS];
+        for (int m = 0; m < MAPS; m++) {
+            maps[m] = SwitchyComponentMap.empty();
+        }
+
+        long sum = 0;
+        long setNanos = 0;
+        long getNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (SwitchyComponentMap map : maps) {
+                for (int i = 0; i < TYPES; i++) {
+                    map.setInt(types.get(i), round + i);
+                }
+            }
+            setNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (SwitchyComponentMap map : maps) {
+                for (int i = 0; i < TYPES; i++) {
+                    sum += map.getInt(types.get(i), 0);
+                }
+            }
+            getNanos = System.nanoTime() - start;
+        }
+
+        long operations = (long) MAPS * TYPES;
+        assertTrue(sum > 0);
+        System.out.printf("[switchy] int slots: getInt %.2f ns/op, setInt %.2f ns/op%n", getNanos / (double) operations, setNanos / (double) operations);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class Result {
+        private final String name;
+        private final long bytesPerMap;
+        private final double getNanos;
+        private final double setNanos;
+
+        private Result(String name, long bytesPerMap, double getNanos, double setNanos) {
+            this.name = name;
+            this.bytesPerMap = bytesPerMap;
+            this.getNanos = getNanos;
+            this.setNanos = setNanos;
+        }
+
+        private void print() {
+            System.out.printf("[switchy] %s: ~%d bytes per map with %d components, get %.2f ns/op, set %.2f ns/op%n", name, bytesPerMap, TYPES, getNanos, setNanos);
+        }
+    }
+}
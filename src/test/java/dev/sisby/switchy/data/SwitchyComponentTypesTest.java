@@ -0,0 +1,47 @@
+package dev.sisby.switchy.data;
+
+import net.minecraft.util.ResourceLocation;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchyComponentTypesTest {
+    private static <T> SwitchyComponentType<T> register(SwitchyComponentTypes types, String path) {
+        return types.registerComponent(new ResourceLocation("switchy_test", path), b -> b);
+    }
+
+    @Test
+    public void rejectedRegistrationsTakeNoOrdinal() {
+        SwitchyComponentTypes types = new SwitchyComponentTypes();
+        SwitchyComponentType<Object> first = register(types, "ordinals/first");
+        assertThrows(IllegalArgumentException.class, () -> register(types, "ordinals/first"));
+        SwitchyComponentType<Object> second = register(types, "ordinals/second");
+        assertEquals(first.ordinal() + 1, second.ordinal());
+        assertSame(second, SwitchyComponentTypes.byOrdinal(second.ordinal()));
+
+        types.freeze();
+        int count = SwitchyComponentTypes.ordinalCount();
+        assertThrows(IllegalStateException.class, () -> register(types, "ordinals/third"));
+        assertEquals(count, SwitchyComponentTypes.ordinalCount());
+    }
+
+    @Test
+    public void primitiveTypesTakeSlotsOnRegistration() {
+        SwitchyComponentTypes types = new SwitchyComponentTypes();
+        int slots = SwitchyComponentTypes.slotCount();
+        SwitchyComponentType.IntComponentType level = types.registerIntComponent(new ResourceLocation("switchy_test", "slots/level"), b -> b);
+        assertEquals(slots, level.slot());
+        assertEquals(slots + 1, SwitchyComponentTypes.slotCount());
+    }
+
+    @Test
+    public void frozenLookupsUseSavedKeys() {
+        SwitchyComponentTypes types = new SwitchyComponentTypes();
+        SwitchyComponentType<Object> type = register(types, "lookups/type");
+        types.freeze();
+        assertSame(type, types.get("switchy_test:lookups/type"));
+        assertNull(types.get("switchy_test:lookups/missing"));
+        assertEquals("switchy_test:lookups/type", types.key(type));
+        assertEquals(new ResourceLocation("switchy_test", "lookups/type"), types.id(type));
+    }
+}
@@ -0,0 +1,112 @@
+package dev.sisby.switchy.data;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchyItemPoolTest {
+    private static final String INVENTORY = "switchy_test:pool/inventory";
+
+    static NBTTagCompound enchanted(int slot, int count) {
+        NBTTagCompound stack = SwitchyCompactCodecTest.item(slot, "minecraft:diamond_sword", count);
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.setString("display", "Excalibur");
+        stack.setTag("tag", tag);
+        return stack;
+    }
+
+    static NBTTagCompound components(NBTTagCompound... stacks) {
+        NBTTagList inventory = new NBTTagList();
+        for (NBTTagCompound stack : stacks) {
+            inventory.appendTag(stack);
+        }
+        NBTTagCompound components = new NBTTagCompound();
+        components.setTag(INVENTORY, inventory);
+        components.setInteger("switchy_test:pool/level", 3);
+        return components;
+    }
+
+    private static Set<SwitchyComponentMap> live(SwitchyComponentMap... maps) {
+        Set<SwitchyComponentMap> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        Collections.addAll(live, maps);
+        return live;
+    }
+
+    @Test
+    public void expandRestoresPooledStacks() {
+        SwitchyItemPool pool = new SwitchyItemPool();
+        NBTTagCompound original = components(enchanted(0, 1), SwitchyCompactCodecTest.item(1, "minecraft:stone", 64), enchanted(2, 1));
+        NBTTagCompound refs = pool.pool(SwitchyComponentMap.empty(), original.copy());
+        assertEquals(1, pool.size());
+        assertNotEquals(original, refs);
+
+        // and again through the saved form, as a restart would load it
+        SwitchyItemPool reloaded = SwitchyItemPool.fromNBT(pool.toNBT());
+        assertEquals(original, pool.expand(refs, new ArrayList<>()));
+        List<String> hashes = new ArrayList<>();
+        assertEquals(original, reloaded.expand(refs, hashes));
+        assertEquals(2, hashes.size());
+    }
+
+    @Test
+    public void identicalStacksAcrossProfilesShareAnEntry() {
+        SwitchyItemPool pool = new SwitchyItemPool();
+        pool.pool(SwitchyComponentMap.empty(), components(enchanted(0, 1)));
+        pool.pool(SwitchyComponentMap.empty(), components(enchanted(5, 1)));
+        assertEquals(1, pool.size());
+        pool.pool(SwitchyComponentMap.empty(), components(enchanted(0, 2)));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void expandedStacksDontAliasEachOtherOrThePool() {
+        SwitchyItemPool pool = new SwitchyItemPool();
+        NBTTagCompound refs = pool.pool(SwitchyComponentMap.empty(), components(enchanted(0, 1), enchanted(1, 1)));
+        NBTTagCompound first = pool.expand(refs, new ArrayList<>());
+        NBTTagCompound second = pool.expand(refs, new ArrayList<>());
+
+        NBTTagCompound stack = first.getTagList(INVENTORY, 10).getCompoundTagAt(0);
+        stack.setByte("Count", (byte) 32);
+        stack.setByte("Slot", (byte) 9);
+        assertEquals(1, second.getTagList(INVENTORY, 10).getCompoundTagAt(0).getByte("Count"));
+        assertEquals(1, first.getTagList(INVENTORY, 10).getCompoundTagAt(1).getByte("Count"));
+        assertEquals(0, second.getTagList(INVENTORY, 10).getCompoundTagAt(0).getByte("Slot"));
+        assertEquals(components(enchanted(0, 1), enchanted(1, 1)), pool.expand(refs, new ArrayList<>()));
+    }
+
+    @Test
+    public void poolingLeavesTheInputUntouched() {
+        SwitchyItemPool pool = new SwitchyItemPool();
+        NBTTagCompound original = components(enchanted(0, 1));
+        NBTTagCompound input = original.copy();
+        pool.pool(SwitchyComponentMap.empty(), input);
+        assertEquals(original, input);
+    }
+
+    @Test
+    public void compactDropsItemsNoLiveMapReferences() {
+        SwitchyItemPool pool = new SwitchyItemPool();
+        SwitchyComponentMap kept = SwitchyComponentMap.empty();
+        SwitchyComponentMap dropped = SwitchyComponentMap.empty();
+        pool.pool(kept, components(enchanted(0, 1)));
+        pool.pool(dropped, components(enchanted(0, 1), enchanted(1, 7)));
+        assertEquals(2, pool.size());
+
+        pool.retain(live(kept));
+        assertEquals(1, pool.compact());
+        assertEquals(1, pool.size());
+
+        // re-pooling a map releases what it referenced before
+        pool.pool(kept, components(SwitchyCompactCodecTest.item(0, "minecraft:stone", 1)));
+        assertEquals(1, pool.compact());
+        assertEquals(0, pool.size());
+    }
+}
@@ -0,0 +1,227 @@
+package dev.sisby.switchy.data;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.ResourceLocation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchyJournalTest {
+    private static final UUID PLAYER = new UUID(0x5717C4L, 1L);
+    private static SwitchyComponentTypes types;
+    private static SwitchyComponentType.IntComponentType level;
+    private File directory;
+
+    @BeforeAll
+    public static void registerTypes() {
+        types = SwitchyTestData.install(t -> level = t.registerIntComponent(new ResourceLocation("switchy_test", "journal/level"), b -> b));
+    }
+
+    @AfterAll
+    public static void restoreTypes() {
+        SwitchyTestData.restore();
+    }
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("switchy-journal").toFile();
+    }
+
+    @AfterEach
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    // the data as it was last saved: one profile per id, each with its index as its level
+    static SwitchyPlayerData saved(String current, String... profileIds) {
+        NBTTagCompound profiles = new NBTTagCompound();
+        for (int i = 0; i < profileIds.length; i++) {
+            profiles.setTag(profileIds[i], SwitchyTestData.profile(profileIds[i], levelNbt(i)));
+        }
+        return SwitchyTestData.load(current, profiles);
+    }
+
+    static SwitchyProfile profile(SwitchyPlayerData data, String profileId) {
+        for (SwitchyProfile profile : data.values()) {
+            if (profile.id().equals(profileId)) return profile;
+        }
+        throw new AssertionError("No profile " + profileId);
+    }
+
+    private SwitchyJournal reopen() {
+        SwitchyJournal journal = new SwitchyJournal();
+        journal.open(directory);
+        return journal;
+    }
+
+    // what the mixin does for a player file written with the given data: load it, then replay
+    private static SwitchyPlayerData load(SwitchyJournal journal, NBTTagCompound playerNbt) {
+        SwitchyPlayerData data = SwitchyPlayerData.fromNbt(playerNbt);
+        journal.replay(PLAYER, "switchy_test", null, data, playerNbt);
+        return data;
+    }
+
+    private static NBTTagCompound save(SwitchyPlayerData data) {
+        NBTTagCompound playerNbt = new NBTTagCompound();
+        data.writeFullNbt(playerNbt);
+        return playerNbt;
+    }
+
+    private static void rename(SwitchyJournal journal, SwitchyPlayerData data, String oldId, String newId) {
+        data.renameProfile(oldId, newId);
+        journal.recordRename(PLAYER, data, oldId, newId);
+    }
+
+    private static void delete(SwitchyJournal journal, SwitchyPlayerData data, String profileId) {
+        data.deleteProfile(profileId);
+        journal.recordDelete(PLAYER, data, profileId);
+    }
+
+    // the outgoing profile's captured level goes in the record, as a live switch would journal it
+    private static void switchProfile(SwitchyJournal journal, SwitchyPlayerData data, String to, int capturedLevel) {
+        String from = data.current();
+        profile(data, from).components().setInt(level, capturedLevel);
+        data.forceCurrent(to, null);
+        journal.recordSwitch(PLAYER, data, from, to, Collections.singletonList(types.key(level)), levelNbt(capturedLevel));
+    }
+
+    @Test
+    public void replaysChangesMadeAfterTheLastSave() {
+        SwitchyJournal journal = reopen();
+        SwitchyPlayerData live = saved("a", "a", "b", "c");
+        rename(journal, live, "b", "renamed");
+        NBTTagCompound saved = save(live);
+        delete(journal, live, "c");
+        switchProfile(journal, live, "renamed", 5);
+        journal.close();
+
+        // the crash lost the delete and the switch; the rename is already in the file and isn't applied again
+        SwitchyJournal restarted = reopen();
+        SwitchyPlayerData data = load(restarted, saved);
+        restarted.close();
+        assertEquals(new HashSet<>(Arrays.asList("a", "renamed")), data.keySet());
+        assertEquals("renamed", data.current());
+        assertEquals(5, profile(data, "a").components().getInt(level, -1));
+        assertEquals(live.journalSequence(), data.journalSequence());
+        assertEquals(save(live), save(data));
+    }
+
+    @Test
+    public void recordsCoveredBySaveAreSkipped() {
+        SwitchyJournal journal = reopen();
+        SwitchyPlayerData live = saved("a", "a", "b");
+        switchProfile(journal, live, "b", 3);
+        rename(journal, live, "a", "c");
+        NBTTagCompound saved = save(live);
+        journal.close();
+
+        SwitchyJournal restarted = reopen();
+        SwitchyPlayerData data = load(restarted, saved);
+        restarted.close();
+        assertEquals(saved, save(data));
+    }
+
+    @Test
+    public void replayIsIdempotent() {
+        SwitchyJournal journal = reopen();
+        SwitchyPlayerData live = saved("a", "a", "b");
+        NBTTagCompound saved = save(live);
+        switchProfile(journal, live, "b", 7);
+        // refused on replay, since "b" still exists when it's reached
+        journal.recordRename(PLAYER, live, "a", "b");
+        journal.close();
+
+        SwitchyJournal first = reopen();
+        SwitchyPlayerData data = load(first, saved);
+        first.close();
+        NBTTagCompound once = save(data);
+
+        // crashed again before saving: the same records are replayed onto the same file
+        SwitchyJournal second = reopen();
+        SwitchyPlayerData again = load(second, saved);
+        // and replaying onto data that already has them changes nothing
+        second.replay(PLAYER, "switchy_test", null, data, saved);
+        second.close();
+        assertEquals(once, save(again));
+        assertEquals(once, save(data));
+        assertEquals("b", data.current());
+        assertEquals(7, profile(data, "a").components().getInt(level, -1));
+    }
+
+    @Test
+    public void switchesPatchOnlyTheJournaledComponents() {
+        SwitchyJournal journal = reopen();
+        SwitchyPlayerData live = saved("a", "a", "b");
+        NBTTagCompound saved = save(live);
+        switchProfile(journal, live, "b", 42);
+        // a journaled key without a value was cleared
+        journal.recordSwitch(PLAYER, live, "b", "a", Collections.singletonList(types.key(level)), new NBTTagCompound());
+        journal.close();
+
+        SwitchyJournal restarted = reopen();
+        SwitchyPlayerData data = load(restarted, saved);
+        restarted.close();
+        assertEquals("a", data.current());
+        assertEquals(42, profile(data, "a").components().getInt(level, -1));
+        assertNull(profile(data, "b").components().get(level));
+    }
+
+    @Test
+    public void switchesToNewProfilesNeedThePlayer() {
+        SwitchyJournal journal = reopen();
+        SwitchyPlayerData live = saved("a", "a", "b");
+        NBTTagCompound saved = save(live);
+        journal.recordSwitch(PLAYER, live, "a", "new", Collections.singletonList(types.key(level)), levelNbt(9));
+        rename(journal, live, "b", "renamed");
+        journal.close();
+
+        // skipped rather than failing, and later records still apply
+        SwitchyJournal restarted = reopen();
+        SwitchyPlayerData data = load(restarted, saved);
+        restarted.close();
+        assertEquals(new HashSet<>(Arrays.asList("a", "renamed")), data.keySet());
+        assertEquals("a", data.current());
+        assertEquals(0, profile(data, "a").components().getInt(level, -1));
+        assertEquals(live.journalSequence(), data.journalSequence());
+    }
+
+    @Test
+    public void sequencesKeepIncreasingAfterReplay() {
+        SwitchyJournal journal = reopen();
+        SwitchyPlayerData live = saved("a", "a", "b");
+        NBTTagCompound saved = save(live);
+        rename(journal, live, "b", "c");
+        journal.close();
+
+        // the replayed record is gone from the rewritten journal, but numbering carries on after it
+        SwitchyJournal restarted = reopen();
+        SwitchyPlayerData data = load(restarted, saved);
+        rename(restarted, data, "c", "d");
+        restarted.close();
+        assertEquals(2, data.journalSequence());
+    }
+
+    private static NBTTagCompound levelNbt(int value) {
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setInteger(types.key(level), value);
+        return nbt;
+    }
+}
@@ -0,0 +1,103 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.SwitchyConfig;
+import dev.sisby.switchy.exception.ProfileQuotaException;
+import dev.sisby.switchy.util.NBTSerializers;
+import dev.sisby.switchy.util.NBTSizes;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.ResourceLocation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchyPlayerDataTest {
+    private static SwitchyComponentTypes types;
+    private static SwitchyComponentType<String> note;
+
+    @BeforeAll
+    public static void registerTypes() {
+        types = SwitchyTestData.install(t -> note = t.registerComponent(new ResourceLocation("switchy_test", "quota/note"), b -> b.nbtSerializer(NBTSerializers.STRING)));
+    }
+
+    @AfterAll
+    public static void restoreTypes() {
+        SwitchyTestData.restore();
+    }
+
+    @AfterEach
+    public void resetQuotas() {
+        SwitchyConfig.maxProfiles = 0;
+        SwitchyConfig.maxProfileKb = 0;
+    }
+
+    static NBTTagCompound profilesNbt(int count, int noteLength) {
+        NBTTagCompound profiles = new NBTTagCompound();
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < noteLength) text.append((char) ('a' + i % 26));
+            NBTTagCompound components = new NBTTagCompound();
+            components.setString(types.key(note), text.toString());
+            profiles.setTag("profile" + i, SwitchyTestData.profile("profile" + i, components));
+        }
+        return profiles;
+    }
+
+    static SwitchyPlayerData data(NBTTagCompound profiles) {
+        return SwitchyTestData.load("profile0", profiles);
+    }
+
+    @Test
+    public void totalSizeMatchesTheLoadedProfiles() {
+        NBTTagCompound profiles = profilesNbt(3, 100);
+        SwitchyPlayerData data = data(profiles);
+        long expected = 0;
+        for (String profileId : profiles.getKeySet()) {
+            expected += NBTSizes.sizeOf(profiles.getCompoundTag(profileId).getCompoundTag("components"));
+        }
+        assertEquals(expected, data.totalSize());
+        // measured at load, so nothing had to be decoded for it
+        for (SwitchyProfile profile : data.values()) {
+            if (!profile.id().equals(data.current())) assertFalse(profile.components().isDecoded());
+        }
+    }
+
+    @Test
+    public void changedProfilesAreRemeasuredWhenEncoded() {
+        SwitchyPlayerData data = data(profilesNbt(2, 100));
+        long before = data.totalSize();
+        SwitchyComponentMap components = data.values().iterator().next().components();
+        components.set(note, "short");
+        // until the next save the last measured size stands, rather than dropping to nothing
+        assertEquals(before, data.totalSize());
+        components.toNBT(types);
+        assertEquals(before - 95, data.totalSize());
+    }
+
+    @Test
+    public void profileCountLimitsOnlyNewProfiles() {
+        SwitchyPlayerData data = data(profilesNbt(2, 10));
+        SwitchyConfig.maxProfiles = 2;
+        data.checkQuota("profile1");
+        assertThrows(ProfileQuotaException.class, () -> data.checkQuota("profile2"));
+        // refused before the player is needed to initialize anything
+        assertThrows(ProfileQuotaException.class, () -> data.getOrCreateProfile("profile2", null));
+        assertFalse(data.profileExists("profile2"));
+        SwitchyConfig.maxProfiles = 3;
+        data.checkQuota("profile2");
+    }
+
+    @Test
+    public void byteLimitLimitsOnlyNewProfiles() {
+        SwitchyPlayerData data = data(profilesNbt(3, 600));
+        assertTrue(data.totalSize() > 1024);
+        SwitchyConfig.maxProfileKb = 1;
+        // over the limit, but switching between existing profiles is never refused
+        data.checkQuota("profile2");
+        assertThrows(ProfileQuotaException.class, () -> data.checkQuota("profile3"));
+        SwitchyConfig.maxProfileKb = 2;
+        data.checkQuota("profile3");
+    }
+}
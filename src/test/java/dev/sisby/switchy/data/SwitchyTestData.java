@@ -0,0 +1,54 @@
+package dev.sisby.switchy.data;
+
+import dev.sisby.switchy.Switchy;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+
+import java.util.function.Consumer;
+
+// Throwaway component types for one test class, and player data loaded the way a save would leave it
+final class SwitchyTestData {
+    private static SwitchyComponentTypes previous;
+
+    private SwitchyTestData() {
+    }
+
+    // from @BeforeAll: the registrations run on a fresh registry, which is frozen and made the instance
+    static SwitchyComponentTypes install(Consumer<SwitchyComponentTypes> registrations) {
+        previous = SwitchyComponentTypes.instance();
+        SwitchyComponentTypes types = new SwitchyComponentTypes();
+        registrations.accept(types);
+        types.freeze();
+        SwitchyComponentTypes.setInstance(types);
+        return types;
+    }
+
+    // from @AfterAll
+    static void restore() {
+        SwitchyComponentTypes.setInstance(previous);
+    }
+
+    static NBTTagCompound profile(String id, NBTTagCompound components) {
+        NBTTagCompound profile = new NBTTagCompound();
+        profile.setString("id", id);
+        profile.setTag("components", components);
+        return profile;
+    }
+
+    // every installed type is enabled
+    static SwitchyPlayerData load(String current, NBTTagCompound profiles) {
+        SwitchyComponentTypes types = SwitchyComponentTypes.instance();
+        NBTTagCompound switchyNbt = new NBTTagCompound();
+        switchyNbt.setString("current", current);
+        NBTTagList componentTypes = new NBTTagList();
+        for (SwitchyComponentType<?> type : types.values()) {
+            componentTypes.appendTag(new NBTTagString(types.key(type)));
+        }
+        switchyNbt.setTag("componentTypes", componentTypes);
+        switchyNbt.setTag("profiles", profiles.copy());
+        NBTTagCompound playerNbt = new NBTTagCompound();
+        playerNbt.setTag(Switchy.ID, switchyNbt);
+        return SwitchyPlayerData.fromNbt(playerNbt);
+    }
+}